@@ -0,0 +1,10 @@
+@echo off
+rem Runs the generator with the class data sharing archive built by "mvn package", if there is one.
+rem Arguments are passed on, e.g. run.cmd --seeds 1..500
+set "JAR=%~dp0target\HypersomniaMapGen-1.0-SNAPSHOT.jar"
+set "ARCHIVE=%~dp0target\HypersomniaMapGen.jsa"
+if exist "%ARCHIVE%" (
+    java -XX:SharedArchiveFile="%ARCHIVE%" %JAVA_OPTS% -jar "%JAR%" %*
+) else (
+    java %JAVA_OPTS% -jar "%JAR%" %*
+)
@@ -0,0 +1,10 @@
+#!/bin/sh
+# Runs the generator with the class data sharing archive built by "mvn package", if there is one.
+# Arguments are passed on, e.g. ./run.sh --seeds 1..500
+DIR="$(cd "$(dirname "$0")" && pwd)"
+JAR="$DIR/target/HypersomniaMapGen-1.0-SNAPSHOT.jar"
+ARCHIVE="$DIR/target/HypersomniaMapGen.jsa"
+if [ -f "$ARCHIVE" ]; then
+    exec java -XX:SharedArchiveFile="$ARCHIVE" $JAVA_OPTS -jar "$JAR" "$@"
+fi
+exec java $JAVA_OPTS -jar "$JAR" "$@"
@@ -0,0 +1,206 @@
+package com.slow3586;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.slow3586.Main.About;
+import com.slow3586.Main.Configuration;
+import com.slow3586.Main.Meta;
+import com.slow3586.Main.NodeSink;
+import com.slow3586.Main.Point;
+import com.slow3586.Main.Room;
+import com.slow3586.Main.Room.RoomStyle;
+import com.slow3586.Main.Settings;
+import com.slow3586.Main.Settings.Layer;
+import com.slow3586.Main.Settings.Node;
+import com.slow3586.Main.Settings.Playtesting;
+import com.slow3586.Main.Size;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.slow3586.Main.CONFIG_FILE_PATH;
+import static com.slow3586.Main.OBJECT_MAPPER;
+
+/**
+ * Benchmarks of every generation phase, on the stock config.json with the room count replaced.
+ * <p>
+ * Run from the repository root (config.json is read from the working directory):
+ * <pre>
+ * mvn -Pbench package
+ * java -cp target/HypersomniaMapGen-1.0-SNAPSHOT.jar org.openjdk.jmh.Main -prof gc
+ * </pre>
+ * Every phase runs on the output of the previous phases, prepared once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerationBenchmark {
+    // "x" instead of "," as JMH splits parameter values by commas
+    @Param({"7x9", "50x50", "200x200"})
+    public String roomsCount;
+
+    Configuration config;
+    GenerationContext context;
+    RoomStyle[] styles;
+    RoomLayout roomLayout;
+    Point cropOffset;
+    Room[][] rooms;
+    TileGrid mapTilesUncropped;
+    // cropped tiles after the diagonal fix, input of the shadow and node phases
+    TileGrid mapTilesCrop;
+    ShadowEngine shadows;
+    Main.Map mapJson;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        config = readConfig(roomsCount, null);
+        context = new GenerationContext(config);
+
+        styles = Main.randomizeStyles(config, context);
+        final Size[] diagonalRoomSizes = Main.randomizeDiagonalRoomSizes(config, context);
+        roomLayout = new RoomLayout(diagonalRoomSizes);
+        cropOffset = roomLayout.cropOffset();
+        rooms = Main.generateRooms(config, context, roomLayout);
+        mapTilesUncropped = Main.renderRooms(config, styles, rooms, roomLayout);
+        mapTilesCrop = Main.cropMap(config, mapTilesUncropped, rooms, roomLayout);
+        Main.fixDiagonalWalls(config, mapTilesCrop);
+        shadows = ShadowEngine.compute(mapTilesCrop, config);
+
+        mapJson = new Main.Map(
+            new Meta(config.gameVersion, config.mapName, "2023-11-14 17:28:36.619839 UTC"),
+            new About("Generated map"),
+            new Settings("bomb_defusal", config.ambientLightColor.intArray()),
+            new Playtesting(Playtesting.QUICK_TEST),
+            new ArrayList<>(),
+            List.of(new Layer("default", new ArrayList<>())),
+            new ArrayList<>(),
+            context);
+        shadows.emit(mapJson);
+        Main.addRoomEffectNodes(config, context, rooms, mapTilesCrop, cropOffset, mapJson);
+        Main.addTileNodes(config, mapTilesCrop, mapJson);
+        Main.addCrateNodes(config, context, rooms, cropOffset, mapJson);
+    }
+
+    /**
+     * @param doorMinMaxWidth replaces the configured value if not null
+     */
+    static Configuration readConfig(final String roomsCount, final String doorMinMaxWidth) throws IOException {
+        final ObjectNode configTree = (ObjectNode) OBJECT_MAPPER.readTree(Files.readString(Path.of(CONFIG_FILE_PATH)));
+        configTree.put("roomsCount", roomsCount.replace('x', ','));
+        if (doorMinMaxWidth != null) {
+            configTree.put("doorMinMaxWidth", doorMinMaxWidth);
+        }
+        return OBJECT_MAPPER.treeToValue(configTree, Configuration.class);
+    }
+
+    @Benchmark
+    public Room[][] rooms() {
+        return Main.generateRooms(config, context, roomLayout);
+    }
+
+    @Benchmark
+    public TileGrid tileRasterization() {
+        return Main.renderRooms(config, styles, rooms, roomLayout);
+    }
+
+    @Benchmark
+    public TileGrid crop() {
+        return Main.cropMap(config, mapTilesUncropped, rooms, roomLayout);
+    }
+
+    @Benchmark
+    public TileGrid diagonalWallFix(final DiagonalFixState state) {
+        Main.fixDiagonalWalls(state.config, state.tiles);
+        return state.tiles;
+    }
+
+    @Benchmark
+    public void shadowNodes(final Blackhole blackhole) {
+        ShadowEngine.compute(mapTilesCrop, config).emit(new BlackholeSink(context, blackhole));
+    }
+
+    @Benchmark
+    public void tileNodes(final Blackhole blackhole) {
+        Main.addTileNodes(config, mapTilesCrop, new BlackholeSink(context, blackhole));
+    }
+
+    @Benchmark
+    public void crateNodes(final Blackhole blackhole) {
+        Main.addCrateNodes(config, context, rooms, cropOffset, new BlackholeSink(context, blackhole));
+    }
+
+    @Benchmark
+    public void roomEffectNodes(final Blackhole blackhole) {
+        Main.addRoomEffectNodes(config, context, rooms, mapTilesCrop, cropOffset, new BlackholeSink(context, blackhole));
+    }
+
+    @Benchmark
+    public void jsonSerialization() throws IOException {
+        OBJECT_MAPPER.writeValue(OutputStream.nullOutputStream(), mapJson);
+    }
+
+    /**
+     * Input of the diagonal fix. The stock config gives no diagonal walls, so the cropped tiles
+     * are generated with doors 1 to 2 tiles wide, which gives hundreds of them.
+     */
+    @State(Scope.Benchmark)
+    public static class DiagonalFixState {
+        Configuration config;
+        // cropped tiles before the diagonal fix
+        TileGrid unfixedTiles;
+        // copy of the unfixed tiles, as the fix works in place
+        TileGrid tiles;
+
+        @Setup(Level.Trial)
+        public void setup(final GenerationBenchmark benchmark) throws IOException {
+            config = readConfig(benchmark.roomsCount, "1,1,2,2");
+            final GenerationContext context = new GenerationContext(config);
+            final RoomStyle[] styles = Main.randomizeStyles(config, context);
+            final RoomLayout roomLayout = new RoomLayout(Main.randomizeDiagonalRoomSizes(config, context));
+            final Room[][] rooms = Main.generateRooms(config, context, roomLayout);
+            unfixedTiles = Main.cropMap(config, Main.renderRooms(config, styles, rooms, roomLayout), rooms, roomLayout);
+        }
+
+        @Setup(Level.Invocation)
+        public void copyTiles() {
+            tiles = unfixedTiles.crop(0, 0, unfixedTiles.width, unfixedTiles.height);
+        }
+    }
+
+    /**
+     * Consumes nodes without keeping them, so node phases are measured without collection growth.
+     */
+    @AllArgsConstructor
+    static class BlackholeSink implements NodeSink {
+        @Getter
+        final GenerationContext context;
+        final Blackhole blackhole;
+
+        @Override
+        public void addNode(final Node node) {
+            blackhole.consume(node);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.slow3586;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Value;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static com.slow3586.Main.CONFIG_FILE_PATH;
+import static com.slow3586.Main.OBJECT_MAPPER;
+
+/**
+ * Generates many maps in parallel in one JVM run.
+ * <p>
+ * Usage:
+ * <pre>
+ * --seeds 100..599      generate config.json once per seed in the range (inclusive)
+ * --seeds 1,5,9         generate config.json once per listed seed
+ * --configs a.json,b.json generate each listed config as is
+ * --threads 8           amount of maps generated at the same time, defaults to available processors
+ * </pre>
+ * Seeded maps are named {@code <mapName>_<seed>}. Every map gets its own project directory
+ * which also receives its text output and config backup. Empty seed ranges and maps sharing
+ * a project directory are rejected before anything is generated.
+ */
+public final class BatchGenerator {
+    private BatchGenerator() {}
+
+    public static void run(final String[] args) throws IOException {
+        final List<Job> jobs = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("#run: missing value for " + arg);
+            }
+            final String value = args[++i];
+            switch (arg) {
+                case "--seeds" -> jobs.addAll(seedJobs(value));
+                case "--configs" -> {
+                    for (final String configPath : value.split(",")) {
+                        final String configStr = Files.readString(Path.of(configPath));
+                        jobs.add(new Job(configPath, configStr, mapDirectory(OBJECT_MAPPER.readTree(configStr))));
+                    }
+                }
+                case "--threads" -> threads = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("#run: unknown argument " + arg);
+            }
+        }
+        if (jobs.isEmpty()) {
+            throw new IllegalArgumentException("#run: no --seeds or --configs given");
+        }
+        checkMapDirectories(jobs);
+
+        generateAll(jobs, threads);
+    }
+
+    static List<Job> seedJobs(final String seeds) throws IOException {
+        final long[] seedArray;
+        if (seeds.contains("..")) {
+            final String[] range = seeds.split("\\.\\.");
+            seedArray = LongStream.rangeClosed(Long.parseLong(range[0]), Long.parseLong(range[1])).toArray();
+        } else {
+            seedArray = Arrays.stream(seeds.split(",")).mapToLong(Long::parseLong).toArray();
+        }
+        if (seedArray.length == 0) {
+            throw new IllegalArgumentException("#seedJobs: no seeds in " + seeds + ", ranges are from..to with from <= to");
+        }
+
+        final ObjectNode baseConfig = (ObjectNode) OBJECT_MAPPER.readTree(Files.readString(Path.of(CONFIG_FILE_PATH)));
+        final String baseMapName = baseConfig.get("mapName").asText();
+        final List<Job> jobs = new ArrayList<>();
+        for (final long seed : seedArray) {
+            final ObjectNode seedConfig = baseConfig.deepCopy();
+            seedConfig.put("randomSeed", seed);
+            seedConfig.put("mapName", baseMapName + "_" + seed);
+            jobs.add(new Job(
+                "seed " + seed,
+                OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(seedConfig),
+                mapDirectory(seedConfig)));
+        }
+        return jobs;
+    }
+
+    /**
+     * @return project directory the map of the config is written into
+     */
+    static Path mapDirectory(final JsonNode config) {
+        final JsonNode gameDirectoryPath = config.get("gameDirectoryPath");
+        final JsonNode mapName = config.get("mapName");
+        if (gameDirectoryPath == null || mapName == null) {
+            throw new IllegalArgumentException("#mapDirectory: config without gameDirectoryPath or mapName");
+        }
+        return Path.of(gameDirectoryPath.asText(), "user", "projects", mapName.asText()).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Rejects jobs writing into the same map directory, as they would overwrite each other's files.
+     */
+    static void checkMapDirectories(final List<Job> jobs) {
+        final Map<Path, String> jobNames = new HashMap<>();
+        for (final Job job : jobs) {
+            final String other = jobNames.putIfAbsent(job.mapDirectory, job.name);
+            if (other != null) {
+                throw new IllegalArgumentException("#checkMapDirectories: " + other + " and " + job.name
+                    + " both write into " + job.mapDirectory + ", give them different mapName values");
+            }
+        }
+    }
+
+    static void generateAll(final List<Job> jobs, final int threads) {
+        final long start = System.currentTimeMillis();
+        final AtomicInteger done = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = jobs.stream()
+                .<Future<?>>map(job -> executor.submit(() -> {
+                    final long jobStart = System.currentTimeMillis();
+                    Main.generate(
+                        OBJECT_MAPPER.readValue(job.configStr, Main.Configuration.class),
+                        job.configStr,
+                        true);
+                    System.out.println("Generated " + done.incrementAndGet() + "/" + jobs.size()
+                        + ": " + job.name + " in " + (System.currentTimeMillis() - jobStart) + "ms");
+                    return null;
+                }))
+                .toList();
+
+            final List<String> failed = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    failed.add(jobs.get(i).name);
+                    new RuntimeException("#generateAll: " + jobs.get(i).name, e.getCause()).printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("#generateAll: interrupted", e);
+                }
+            }
+
+            System.out.println("Generated " + (jobs.size() - failed.size()) + " of " + jobs.size()
+                + " maps in " + (System.currentTimeMillis() - start) + "ms");
+            if (!failed.isEmpty()) {
+                throw new RuntimeException("#generateAll: failed to generate " + failed);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Value
+    static class Job {
+        String name;
+        String configStr;
+        Path mapDirectory;
+    }
+}
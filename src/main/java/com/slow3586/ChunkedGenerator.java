@@ -0,0 +1,229 @@
+package com.slow3586;
+
+import com.slow3586.Main.Configuration;
+import com.slow3586.Main.NodeSink;
+import com.slow3586.Main.Point;
+import com.slow3586.Main.Room;
+import com.slow3586.Main.Room.RoomStyle;
+import com.slow3586.Main.Size;
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * Generates the tiles, shadows, text output and nodes of a map in chunks of room rows,
+ * keeping only a window of map rows in memory instead of the whole tile grid.
+ * <p>
+ * For every chunk, the new map rows are rendered from the rooms overlapping them, then the
+ * diagonal wall fix and everything reading tiles run on the rows whose neighbourhood is final:
+ * the fix runs on the rendered rows as far as {@link DiagonalWallFix#advance} allows,
+ * and shadows lag one row behind the rows it no longer changes.
+ * Rows no longer needed are dropped from the window. Tiles end up the same as in a whole-map
+ * generation, nodes the same up to their order and ids, except that merged tile rectangles
+ * don't cross chunks and collapsed shadows are tinted for the highest possible stack.
+ */
+public final class ChunkedGenerator {
+    final Configuration config;
+    final GenerationContext context;
+    final RoomStyle[] styles;
+    final Room[][] rooms;
+    final RoomLayout roomLayout;
+    final Point cropOffset;
+    final Point mapOrigin;
+    @Getter
+    final Size mapSize;
+    final int maxShadowNodeCount;
+    final PhaseMetrics metrics;
+    // uncropped rows spanned by each room row
+    final int[] roomRowTops;
+    final int[] roomRowBottoms;
+
+    // rows of the map held in memory
+    TileGrid window;
+    final DiagonalWallFix diagonalWallFix;
+    // exclusive ends of the map rows done by every step
+    int renderedTo;
+    int shadowsTo;
+    int finalTo;
+    // next room rows to add effects and crates of
+    int effectsRoomY;
+    int cratesRoomY;
+
+    public ChunkedGenerator(
+        final Configuration config,
+        final GenerationContext context,
+        final RoomStyle[] styles,
+        final Room[][] rooms,
+        final RoomLayout roomLayout,
+        final PhaseMetrics metrics
+    ) {
+        this.config = config;
+        this.context = context;
+        this.styles = styles;
+        this.rooms = rooms;
+        this.roomLayout = roomLayout;
+        this.cropOffset = roomLayout.cropOffset();
+        this.mapOrigin = Main.mapOrigin(config, roomLayout);
+        this.mapSize = Main.mapSize(config, rooms, roomLayout);
+        this.maxShadowNodeCount = ShadowEngine.maxNodeCountBound(styles, config);
+        this.metrics = metrics;
+        this.diagonalWallFix = new DiagonalWallFix(config, mapSize.getW(), mapSize.getH());
+        this.roomRowTops = new int[rooms.length];
+        this.roomRowBottoms = new int[rooms.length];
+        for (int roomY = 0; roomY < rooms.length; roomY++) {
+            roomRowTops[roomY] = Integer.MAX_VALUE;
+            for (final Room room : rooms[roomY]) {
+                final int top = room.getRoomPosAbs().getY();
+                final int bottom = top + room.getRoomSize().getH();
+                roomRowTops[roomY] = Math.min(roomRowTops[roomY],
+                    Math.min(top, bottom + room.getWallHoriz().offset()));
+                roomRowBottoms[roomY] = Math.max(roomRowBottoms[roomY], Math.max(
+                    bottom + 1,
+                    Math.max(
+                        bottom + room.getWallHoriz().offset() + room.getWallHoriz().width(),
+                        bottom + room.getStyleSize().getH())));
+            }
+        }
+    }
+
+    /**
+     * @return shadows without nodes, giving the shadow resource tints used by the chunks
+     */
+    public ShadowEngine shadowResources() {
+        return ShadowEngine.compute(new TileGrid(mapSize.getW(), 0), config, 0, 0, 0, maxShadowNodeCount);
+    }
+
+    /**
+     * Generates all chunks.
+     *
+     * @param textWriter     receives the text output rows, may be null
+     * @param snapshotWriter receives the final tile rows, may be null
+     * @param preview        receives the final tiles and shadows, may be null
+     */
+    public void generate(
+        final NodeSink mapNodes,
+        final TextMapWriter textWriter,
+        final MapSnapshot.Writer snapshotWriter,
+        final MapPreview preview
+    ) throws IOException {
+        for (int fromRoomY = 0; fromRoomY < rooms.length; fromRoomY += config.chunkRoomRows) {
+            final int toRoomY = Math.min(rooms.length, fromRoomY + config.chunkRoomRows);
+            final int chunkEnd = toRoomY == rooms.length
+                ? mapSize.getH()
+                : Math.max(0, Math.min(mapSize.getH(), roomLayout.height(toRoomY) - mapOrigin.getY()));
+            generateChunk(chunkEnd, toRoomY, mapNodes, textWriter, snapshotWriter, preview);
+        }
+    }
+
+    /**
+     * Makes the map rows before chunkEnd final and adds their nodes.
+     */
+    private void generateChunk(
+        final int chunkEnd,
+        final int toRoomY,
+        final NodeSink mapNodes,
+        final TextMapWriter textWriter,
+        final MapSnapshot.Writer snapshotWriter,
+        final MapPreview preview
+    ) throws IOException {
+        final int mapWidth = mapSize.getW();
+        final int mapHeight = mapSize.getH();
+
+        //region GENERATION: RENDER ROOMS
+        metrics.begin("GENERATION: RENDER ROOMS");
+        // the diagonal wall fix at row y reads the rows y and y + 1
+        final int renderTo = Math.min(mapHeight, chunkEnd + 2);
+        final int keepFrom = Math.max(0, Math.min(shadowsTo - 1, effectRowsFrom(effectsRoomY)));
+        final TileGrid nextWindow = new TileGrid(0, keepFrom, mapWidth, renderTo - keepFrom);
+        if (window != null) {
+            nextWindow.copyRows(window, keepFrom, renderedTo);
+        }
+        if (renderTo > renderedTo) {
+            final TileGrid rendered = new TileGrid(0, renderedTo, mapWidth, renderTo - renderedTo);
+            final TileGrid renderedUncropped = rendered.translated(mapOrigin.getX(), mapOrigin.getY());
+            for (int roomY = 0; roomY < rooms.length; roomY++) {
+                if (roomRowTops[roomY] < renderedUncropped.endY() && roomRowBottoms[roomY] > renderedUncropped.originY) {
+                    Main.renderRooms(config, styles, rooms, roomY, roomY + 1, renderedUncropped);
+                }
+            }
+            nextWindow.copyRows(rendered, renderedTo, renderTo);
+            if (renderTo == mapHeight) {
+                //region GENERATION: FIX MOST DOWN RIGHT TILE
+                nextWindow.copyTile(mapWidth - 2, mapHeight - 1, mapWidth - 1, mapHeight - 1);
+                //endregion
+            }
+        }
+        window = nextWindow;
+        renderedTo = renderTo;
+        //endregion
+
+        //region GENERATION: FIX DIAGONAL WALLS
+        metrics.begin("GENERATION: FIX DIAGONAL WALLS");
+        final int previousFinalTo = finalTo;
+        finalTo = diagonalWallFix.advance(window, renderTo);
+        //endregion
+
+        //region OUTPUT: PRINT MAP TO TEXT FILE
+        if (textWriter != null) {
+            metrics.begin("OUTPUT: PRINT MAP TO TEXT FILE");
+            textWriter.writeRows(window, previousFinalTo, finalTo);
+        }
+        //endregion
+
+        //region OUTPUT: SNAPSHOT
+        if (snapshotWriter != null) {
+            metrics.begin("OUTPUT: SNAPSHOT");
+            snapshotWriter.writeRows(window, previousFinalTo, finalTo);
+        }
+        //endregion
+
+        //region NODES: SHADOWS
+        metrics.begin("NODES: SHADOWS");
+        // shadows of a row depend on the rows around it
+        final int shadowsEnd = finalTo == mapHeight ? mapHeight : Math.max(shadowsTo, finalTo - 1);
+        final ShadowEngine shadows = ShadowEngine.compute(
+            window, config, shadowsTo, shadowsEnd, mapHeight, maxShadowNodeCount);
+        shadows.emit(mapNodes);
+        shadowsTo = shadowsEnd;
+        //endregion
+
+        //region OUTPUT: PREVIEW
+        if (preview != null) {
+            metrics.begin("OUTPUT: PREVIEW");
+            preview.renderTiles(window, previousFinalTo, finalTo);
+            preview.renderShadows(shadows);
+        }
+        //endregion
+
+        //region NODES: ROOM EFFECTS
+        metrics.begin("NODES: ROOM EFFECTS");
+        final int fromEffectsRoomY = effectsRoomY;
+        while (effectsRoomY < rooms.length
+            && (finalTo == mapHeight || effectRowsFrom(effectsRoomY + 1) <= finalTo)) {
+            effectsRoomY++;
+        }
+        Main.addRoomEffectNodes(config, context, rooms, fromEffectsRoomY, effectsRoomY,
+            window, mapHeight, cropOffset, mapNodes);
+        //endregion
+
+        //region NODES: MAP TILES
+        metrics.begin("NODES: MAP TILES");
+        Main.addTileNodes(config, window, previousFinalTo, finalTo, mapNodes);
+        //endregion
+
+        //region NODES: CRATES
+        metrics.begin("NODES: CRATES");
+        Main.addCrateNodes(config, context, rooms, cratesRoomY, toRoomY, cropOffset, mapNodes);
+        cratesRoomY = toRoomY;
+        //endregion
+    }
+
+    /**
+     * @return first map row the effects of the given room row may be placed in
+     */
+    private int effectRowsFrom(final int roomY) {
+        return roomY < rooms.length
+            ? Math.min(mapSize.getH(), Math.max(0, roomLayout.height(roomY) - cropOffset.getY()))
+            : mapSize.getH();
+    }
+}
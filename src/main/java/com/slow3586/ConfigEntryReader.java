@@ -0,0 +1,265 @@
+package com.slow3586;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Reads the numbers of a config entry straight from the parser's current token, without building
+ * a tree or splitting strings. An entry is written either as a comma separated string, e.g. "1,2",
+ * or as a JSON array, e.g. [1, 2]; whitespace around the numbers is allowed.
+ * <p>
+ * Numbers in strings are parsed from the parser's character buffer. Floats with at most
+ * {@link #MAX_FAST_FRACTION_DIGITS} fraction digits and a mantissa exact in a float are computed
+ * by a single float division, rounded exactly as {@link Float#parseFloat}, others fall back to it.
+ */
+public final class ConfigEntryReader {
+    private static final int MAX_FAST_FRACTION_DIGITS = 10;
+    private static final int MAX_FAST_MANTISSA = 1 << 24;
+    // exact in a float up to 10^10
+    private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private ConfigEntryReader() {}
+
+    public static int[] readInts(final JsonParser jsonParser, final int count) throws IOException {
+        final int[] values = new int[count];
+        if (jsonParser.currentToken() == JsonToken.START_ARRAY) {
+            int i = 0;
+            while (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+                checkIndex(jsonParser, i, count);
+                values[i++] = jsonParser.currentToken() == JsonToken.VALUE_STRING
+                    ? parseInt(jsonParser, jsonParser.getTextCharacters(), jsonParser.getTextOffset(),
+                    jsonParser.getTextOffset() + jsonParser.getTextLength())
+                    : jsonParser.getIntValue();
+            }
+            checkCount(jsonParser, i, count);
+            return values;
+        }
+
+        final char[] chars = text(jsonParser);
+        final int end = jsonParser.getTextOffset() + jsonParser.getTextLength();
+        int from = jsonParser.getTextOffset();
+        int i = 0;
+        while (true) {
+            final int to = pieceEnd(chars, from, end);
+            checkIndex(jsonParser, i, count);
+            values[i++] = parseInt(jsonParser, chars, from, to);
+            if (to == end) {
+                break;
+            }
+            from = to + 1;
+        }
+        checkCount(jsonParser, i, count);
+        return values;
+    }
+
+    public static float[] readFloats(final JsonParser jsonParser, final int count) throws IOException {
+        final float[] values = new float[count];
+        if (jsonParser.currentToken() == JsonToken.START_ARRAY) {
+            int i = 0;
+            while (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+                checkIndex(jsonParser, i, count);
+                values[i++] = jsonParser.currentToken() == JsonToken.VALUE_STRING
+                    ? parseFloat(jsonParser, jsonParser.getTextCharacters(), jsonParser.getTextOffset(),
+                    jsonParser.getTextOffset() + jsonParser.getTextLength())
+                    : jsonParser.getFloatValue();
+            }
+            checkCount(jsonParser, i, count);
+            return values;
+        }
+
+        final char[] chars = text(jsonParser);
+        final int end = jsonParser.getTextOffset() + jsonParser.getTextLength();
+        int from = jsonParser.getTextOffset();
+        int i = 0;
+        while (true) {
+            final int to = pieceEnd(chars, from, end);
+            checkIndex(jsonParser, i, count);
+            values[i++] = parseFloat(jsonParser, chars, from, to);
+            if (to == end) {
+                break;
+            }
+            from = to + 1;
+        }
+        checkCount(jsonParser, i, count);
+        return values;
+    }
+
+    /**
+     * Reads count integer ranges, each written as a single integer or as "from..to", e.g. "1..6,1".
+     *
+     * @return from and to of every range in turn, from is never above to, so a reversed range is swapped
+     */
+    public static int[] readRanges(final JsonParser jsonParser, final int count) throws IOException {
+        final int[] values = new int[count * 2];
+        if (jsonParser.currentToken() == JsonToken.START_ARRAY) {
+            int i = 0;
+            while (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+                checkIndex(jsonParser, i, count);
+                if (jsonParser.currentToken() == JsonToken.VALUE_STRING) {
+                    parseRange(jsonParser, jsonParser.getTextCharacters(), jsonParser.getTextOffset(),
+                        jsonParser.getTextOffset() + jsonParser.getTextLength(), values, i++);
+                } else {
+                    values[i * 2] = values[i * 2 + 1] = jsonParser.getIntValue();
+                    i++;
+                }
+            }
+            checkCount(jsonParser, i, count);
+            return values;
+        }
+
+        final char[] chars = text(jsonParser);
+        final int end = jsonParser.getTextOffset() + jsonParser.getTextLength();
+        int from = jsonParser.getTextOffset();
+        int i = 0;
+        while (true) {
+            final int to = pieceEnd(chars, from, end);
+            checkIndex(jsonParser, i, count);
+            parseRange(jsonParser, chars, from, to, values, i++);
+            if (to == end) {
+                break;
+            }
+            from = to + 1;
+        }
+        checkCount(jsonParser, i, count);
+        return values;
+    }
+
+    private static char[] text(final JsonParser jsonParser) throws IOException {
+        if (jsonParser.currentToken() != JsonToken.VALUE_STRING) {
+            throw error(jsonParser, "expected a string or an array, got " + jsonParser.currentToken());
+        }
+        return jsonParser.getTextCharacters();
+    }
+
+    /**
+     * @return index of the comma ending the piece starting at from, or end
+     */
+    private static int pieceEnd(final char[] chars, final int from, final int end) {
+        int i = from;
+        while (i < end && chars[i] != ',') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int parseInt(final JsonParser jsonParser, final char[] chars, final int from, final int to) throws IOException {
+        int i = skipSpaces(chars, from, to);
+        final int end = trimSpaces(chars, i, to);
+        final boolean negative = i < end && chars[i] == '-';
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            i++;
+        }
+        if (i == end) {
+            throw error(jsonParser, "missing number in \"" + new String(chars, from, to - from) + "\"");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw error(jsonParser, "not an integer: \"" + new String(chars, from, to - from) + "\"");
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw error(jsonParser, "integer out of range: \"" + new String(chars, from, to - from) + "\"");
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw error(jsonParser, "integer out of range: \"" + new String(chars, from, to - from) + "\"");
+        }
+        return (int) value;
+    }
+
+    private static void parseRange(
+        final JsonParser jsonParser,
+        final char[] chars,
+        final int from,
+        final int to,
+        final int[] values,
+        final int index
+    ) throws IOException {
+        int separator = from;
+        while (separator + 1 < to && !(chars[separator] == '.' && chars[separator + 1] == '.')) {
+            separator++;
+        }
+        if (separator + 1 >= to) {
+            values[index * 2] = values[index * 2 + 1] = parseInt(jsonParser, chars, from, to);
+            return;
+        }
+        final int rangeFrom = parseInt(jsonParser, chars, from, separator);
+        final int rangeTo = parseInt(jsonParser, chars, separator + 2, to);
+        values[index * 2] = Math.min(rangeFrom, rangeTo);
+        values[index * 2 + 1] = Math.max(rangeFrom, rangeTo);
+    }
+
+    private static float parseFloat(final JsonParser jsonParser, final char[] chars, final int from, final int to) throws IOException {
+        final int start = skipSpaces(chars, from, to);
+        final int end = trimSpaces(chars, start, to);
+        int i = start;
+        final boolean negative = i < end && chars[i] == '-';
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end && mantissa < MAX_FAST_MANTISSA; i++) {
+            final char c = chars[i];
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + c - '0';
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0 && mantissa <= MAX_FAST_MANTISSA && fractionDigits <= MAX_FAST_FRACTION_DIGITS) {
+            // both operands are exact floats, so the one rounding of the division is the correct one
+            final float value = (float) mantissa / POWERS_OF_TEN[Math.max(0, fractionDigits)];
+            return negative ? -value : value;
+        }
+        try {
+            return Float.parseFloat(new String(chars, start, end - start));
+        } catch (NumberFormatException e) {
+            throw error(jsonParser, "not a number: \"" + new String(chars, from, to - from) + "\"");
+        }
+    }
+
+    private static int skipSpaces(final char[] chars, final int from, final int to) {
+        int i = from;
+        while (i < to && Character.isWhitespace(chars[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimSpaces(final char[] chars, final int from, final int to) {
+        int i = to;
+        while (i > from && Character.isWhitespace(chars[i - 1])) {
+            i--;
+        }
+        return i;
+    }
+
+    private static void checkIndex(final JsonParser jsonParser, final int index, final int count) {
+        if (index >= count) {
+            throw error(jsonParser, "expected " + count + " values, got more");
+        }
+    }
+
+    private static void checkCount(final JsonParser jsonParser, final int read, final int count) {
+        if (read != count) {
+            throw error(jsonParser, "expected " + count + " values, got " + read);
+        }
+    }
+
+    private static RuntimeException error(final JsonParser jsonParser, final String message) {
+        return new RuntimeException("#read: " + message + " at " + jsonParser.getCurrentLocation());
+    }
+}
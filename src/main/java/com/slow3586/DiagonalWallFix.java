@@ -0,0 +1,232 @@
+package com.slow3586;
+
+import com.slow3586.Main.Configuration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import static com.slow3586.TileGrid.TileType.FLOOR;
+
+/**
+ * Removes walls touching only diagonally, by turning the 2x2 square into floor, until none are left:
+ * <pre>
+ * #_    _#
+ * _# OR #_
+ * </pre>
+ * The first round is a scan of the map in row-major order, fixing squares as it goes.
+ * A fix can only create new diagonal touches in the 8 squares around it: those after it are
+ * checked later in the same round, those before it in the next round. Further rounds only check
+ * these candidates, in the same order, until a round fixes nothing. When two rounds are enough,
+ * this gives the same tiles as scanning the whole map twice.
+ * <p>
+ * Squares are identified by their top-left tile, squares touching the map border are never fixed.
+ * The fix can run while the map is still being rendered, see {@link #advance}.
+ * <p>
+ * Fixes only ever turn walls into floor. A fix of a side or vertical neighbour of a square removes two
+ * adjacent tiles of it, after which it can't be diagonal. A non-diagonal square can thus only become
+ * diagonal if its two walls of one diagonal remain, and each tile of the other diagonal is floor or is removed
+ * by a fix of the diagonal neighbour square sharing only that tile. Chains of such fixes may climb any number
+ * of rows up the map, e.g. along a staircase of walls, so rows are only final once no chain can reach them.
+ */
+public final class DiagonalWallFix {
+    /**
+     * Bumped whenever the fixed tiles of a map may change, part of the {@link PhaseCache} key.
+     * 1 was a single pass, 2 repeats until no diagonal touch is left.
+     */
+    public static final int VERSION = 2;
+    final Configuration config;
+    final int mapWidth;
+    final int mapHeight;
+    // candidates of the second and later rounds, as y * mapWidth + x of the top-left tile
+    final List<TreeSet<Long>> candidateRounds = new ArrayList<>();
+    // first round done for squares in the rows before
+    int scannedTo = 1;
+    int stableTo;
+    int fixCount;
+
+    public DiagonalWallFix(final Configuration config, final int mapWidth, final int mapHeight) {
+        this.config = config;
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+    }
+
+    /**
+     * Fixes the whole grid.
+     *
+     * @return number of fixed squares
+     */
+    public static int fix(final Configuration config, final TileGrid grid) {
+        final DiagonalWallFix fix = new DiagonalWallFix(config, grid.width, grid.height);
+        fix.advance(grid, grid.height);
+        return fix.fixCount;
+    }
+
+    /**
+     * Fixes what can be fixed given the first rows of the map, checking every square
+     * after the rows it reads are final in all previous rounds.
+     *
+     * @param grid       window of the map holding the rows from {@link #getStableTo()} - 1 up to renderedTo
+     * @param renderedTo number of map rows rendered so far
+     * @return number of the first rows no longer changed by the fix
+     */
+    public int advance(final TileGrid grid, final int renderedTo) {
+        // a square reads its row and the row below
+        final boolean rendered = renderedTo >= mapHeight;
+        final int scanTo = Math.min(renderedTo - 1, mapHeight - 1);
+        for (int y = scannedTo; y < scanTo; y++) {
+            for (int x = 1; x < mapWidth - 1; x++) {
+                if (isDiagonal(grid, x, y)) {
+                    fix(grid, x, y, 0);
+                }
+            }
+        }
+        scannedTo = Math.max(scannedTo, scanTo);
+
+        // round i + 2 checks a square after round i + 1 is done with the row below it
+        for (int round = 0; round < candidateRounds.size(); round++) {
+            final TreeSet<Long> candidates = candidateRounds.get(round);
+            final int roundTo = rendered ? mapHeight - 1 : scannedTo - 1 - round;
+            while (!candidates.isEmpty() && candidates.first() / mapWidth < roundTo) {
+                final long square = candidates.pollFirst();
+                final int x = (int) (square % mapWidth);
+                final int y = (int) (square / mapWidth);
+                if (isDiagonal(grid, x, y)) {
+                    fix(grid, x, y, round + 1);
+                }
+            }
+        }
+
+        stableTo = rendered
+            ? mapHeight
+            : Math.max(stableTo, firstChangeableRow(grid));
+        return stableTo;
+    }
+
+    /**
+     * Finds the squares above the unscanned rows that may still be fixed: the pending candidates and the squares
+     * that may become diagonal by fixes of those or of unscanned squares, see the class comment.
+     *
+     * @return first row a fix may still change
+     */
+    private int firstChangeableRow(final TileGrid grid) {
+        final int fromY = Math.max(1, stableTo);
+        if (scannedTo <= fromY) {
+            return scannedTo;
+        }
+        // squares of the rows [fromY, scannedTo) that may be fixed
+        final BitSet changeable = new BitSet();
+        final ArrayDeque<Long> worklist = new ArrayDeque<>();
+        for (int x = 1; x < mapWidth - 1; x++) {
+            worklist.add((long) (scannedTo - 1) * mapWidth + x);
+        }
+        for (final TreeSet<Long> candidates : candidateRounds) {
+            worklist.addAll(candidates);
+        }
+
+        int firstRow = scannedTo;
+        while (!worklist.isEmpty()) {
+            final long square = worklist.poll();
+            final int x = (int) (square % mapWidth);
+            final int y = (int) (square / mapWidth);
+            final int bit = (y - fromY) * mapWidth + x;
+            if (y < fromY || y >= scannedTo || changeable.get(bit) || !mayBecomeDiagonal(grid, changeable, fromY, x, y)) {
+                continue;
+            }
+            changeable.set(bit);
+            firstRow = Math.min(firstRow, y);
+            for (int squareY = y - 1; squareY <= y + 1; squareY += 2) {
+                for (int squareX = Math.max(1, x - 1); squareX <= Math.min(mapWidth - 2, x + 1); squareX += 2) {
+                    worklist.add((long) squareY * mapWidth + squareX);
+                }
+            }
+        }
+        return firstRow;
+    }
+
+    private boolean mayBecomeDiagonal(
+        final TileGrid grid,
+        final BitSet changeable,
+        final int fromY,
+        final int x,
+        final int y
+    ) {
+        final boolean upLeft = grid.isWall(x, y);
+        final boolean upRight = grid.isWall(x + 1, y);
+        final boolean downLeft = grid.isWall(x, y + 1);
+        final boolean downRight = grid.isWall(x + 1, y + 1);
+        return (upLeft && downRight
+            && (!upRight || mayBeFixed(changeable, fromY, x + 1, y - 1))
+            && (!downLeft || mayBeFixed(changeable, fromY, x - 1, y + 1)))
+            || (upRight && downLeft
+            && (!upLeft || mayBeFixed(changeable, fromY, x - 1, y - 1))
+            && (!downRight || mayBeFixed(changeable, fromY, x + 1, y + 1)));
+    }
+
+    private boolean mayBeFixed(final BitSet changeable, final int fromY, final int x, final int y) {
+        if (x < 1 || x > mapWidth - 2 || y < fromY || y > mapHeight - 2) {
+            return false;
+        }
+        return y >= scannedTo || changeable.get((y - fromY) * mapWidth + x);
+    }
+
+    public int getStableTo() {
+        return stableTo;
+    }
+
+    private boolean isDiagonal(final TileGrid grid, final int x, final int y) {
+        final boolean wall = grid.isWall(x, y);
+        final boolean wallR = grid.isWall(x + 1, y);
+        final boolean wallD = grid.isWall(x, y + 1);
+        final boolean wallRD = grid.isWall(x + 1, y + 1);
+        return (wall && wallRD && !wallR && !wallD)
+            || (!wall && !wallRD && wallR && wallD);
+    }
+
+    /**
+     * Turns the square into floor and adds the squares around it to the candidates.
+     *
+     * @param round 0 for the first round
+     */
+    private void fix(final TileGrid grid, final int x, final int y, final int round) {
+        if (y < stableTo) {
+            // rows before stableTo are proven final, see firstChangeableRow
+            throw new RuntimeException("#fix: diagonal wall fix reached the final map row " + y);
+        }
+        fixCount++;
+        forEachTile(x, y, (tileX, tileY) -> {
+            if (grid.isWall(tileX, tileY)) {
+                grid.setHeight(tileX, tileY, grid.getHeight(tileX, tileY) - config.wallHeight);
+            }
+            grid.setTileType(tileX, tileY, FLOOR);
+        });
+
+        for (int squareY = Math.max(1, y - 1); squareY <= Math.min(mapHeight - 2, y + 1); squareY++) {
+            for (int squareX = Math.max(1, x - 1); squareX <= Math.min(mapWidth - 2, x + 1); squareX++) {
+                final boolean before = squareY < y || (squareY == y && squareX < x);
+                if (before) {
+                    candidates(round + 1).add((long) squareY * mapWidth + squareX);
+                } else if (round > 0 && (squareY != y || squareX != x)) {
+                    // the first round scans the squares after anyway
+                    candidates(round).add((long) squareY * mapWidth + squareX);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param round 1 for the second round
+     */
+    private TreeSet<Long> candidates(final int round) {
+        while (candidateRounds.size() < round) {
+            candidateRounds.add(new TreeSet<>());
+        }
+        return candidateRounds.get(round - 1);
+    }
+
+    private static void forEachTile(final int x, final int y, final Main.PointConsumer consumer) {
+        Main.forEachPoint(x, y, 2, 2, consumer);
+    }
+}
@@ -0,0 +1,119 @@
+package com.slow3586;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.commons.codec.digest.Blake3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.slow3586.Main.OBJECT_MAPPER;
+
+/**
+ * BLAKE3 digests of files, cached by absolute path while the file's size and modification time stay the same.
+ * <p>
+ * BLAKE3 with the default 32 byte output, as lowercase hex, is what the editor computes for the
+ * {@code file_hash} of external resources (augs::secure_hash) to tell whether an image file changed.
+ * <p>
+ * The cache is kept in a JSON file between runs, so unchanged files are never hashed again.
+ * One instance is shared per cache file, so concurrent batch generations hash every file once.
+ */
+public final class FileHashCache {
+    private static final Map<String, FileHashCache> INSTANCES = new ConcurrentHashMap<>();
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    final Path cacheFilePath;
+    final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    volatile boolean changed;
+
+    private FileHashCache(final Path cacheFilePath) {
+        this.cacheFilePath = cacheFilePath;
+        if (cacheFilePath == null || !Files.exists(cacheFilePath)) {
+            return;
+        }
+        try {
+            entries.putAll(OBJECT_MAPPER.readValue(
+                cacheFilePath.toFile(),
+                new TypeReference<Map<String, Entry>>() {}));
+        } catch (IOException e) {
+            // a broken cache is rebuilt from scratch
+            System.out.println("Ignoring unreadable hash cache " + cacheFilePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param cacheFilePath file to keep the cache in, in memory only if null
+     */
+    public static FileHashCache forFile(final String cacheFilePath) {
+        return INSTANCES.computeIfAbsent(
+            cacheFilePath == null ? "" : cacheFilePath,
+            key -> new FileHashCache(key.isEmpty() ? null : Path.of(key)));
+    }
+
+    /**
+     * Only source files should be hashed through the cache, files deployed into maps would pile up in it.
+     *
+     * @return lowercase hex BLAKE3 of the file
+     */
+    public String hash(final Path path) throws IOException {
+        final Path absolutePath = path.toAbsolutePath().normalize();
+        final BasicFileAttributes attributes = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        final Entry cached = entries.get(absolutePath.toString());
+        // entries of older cache files have no blake3
+        if (cached != null
+            && cached.blake3 != null
+            && cached.size == attributes.size()
+            && cached.lastModified == lastModified) {
+            return cached.blake3;
+        }
+        final Entry entry = new Entry(attributes.size(), lastModified, blake3(absolutePath));
+        entries.put(absolutePath.toString(), entry);
+        changed = true;
+        return entry.blake3;
+    }
+
+    /**
+     * Writes the cache file if any hash was computed since it was read.
+     */
+    public synchronized void save() throws IOException {
+        if (cacheFilePath == null || !changed) {
+            return;
+        }
+        changed = false;
+        final Path tempPath = cacheFilePath.resolveSibling(cacheFilePath.getFileName() + ".tmp");
+        OBJECT_MAPPER.writeValue(tempPath.toFile(), new TreeMap<>(entries));
+        Files.move(tempPath, cacheFilePath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String blake3(final Path path) throws IOException {
+        final Blake3 hasher = Blake3.initHash();
+        try (final InputStream inputStream = Files.newInputStream(path)) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                hasher.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(hasher.doFinalize(32));
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class Entry {
+        long size;
+        long lastModified;
+        String blake3;
+    }
+}
@@ -0,0 +1,34 @@
+package com.slow3586;
+
+import com.slow3586.Main.Configuration;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State of a single map generation: configuration, random streams and node ids.
+ * <p>
+ * Every generation gets its own context, so generations can run concurrently
+ * and every map's node ids start at 0.
+ */
+@Getter
+public final class GenerationContext {
+    final Configuration config;
+    final AtomicInteger nodeIndex = new AtomicInteger(0);
+
+    public GenerationContext(final Configuration config) {
+        this.config = config;
+    }
+
+    public GenerationRandom random(final GenerationRandom.Phase phase, final int x, final int y) {
+        return new GenerationRandom(config.randomEnabled, config.randomSeed, phase, x, y);
+    }
+
+    public GenerationRandom random(final GenerationRandom.Phase phase, final int index) {
+        return random(phase, index, 0);
+    }
+
+    public String nextNodeId() {
+        return String.valueOf(nodeIndex.getAndIncrement());
+    }
+}
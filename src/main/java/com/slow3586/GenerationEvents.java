@@ -0,0 +1,152 @@
+package com.slow3586;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Java Flight Recorder events of the generation, shown in JMC under "Hypersomnia Map Generator".
+ * <p>
+ * Events cost next to nothing unless a recording enables them, e.g.
+ * {@code java -XX:StartFlightRecording=filename=gen.jfr -jar ...}.
+ * Fields are only filled in once an event is known to be committed.
+ */
+public final class GenerationEvents {
+    private static final String CATEGORY = "Hypersomnia Map Generator";
+
+    private GenerationEvents() {}
+
+    @Name("com.slow3586.MapGeneration")
+    @Label("Map Generation")
+    @Description("Generation of a whole map, from configuration to the written files")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class MapEvent extends Event {
+        @Label("Map Name")
+        String mapName;
+        @Label("Random Seed")
+        long randomSeed;
+        @Label("Map Width")
+        @Description("Width of the cropped map in tiles")
+        int mapWidth;
+        @Label("Map Height")
+        @Description("Height of the cropped map in tiles")
+        int mapHeight;
+        @Label("Node Count")
+        int nodeCount;
+
+        public void commit(
+            final String mapName,
+            final long randomSeed,
+            final int mapWidth,
+            final int mapHeight,
+            final int nodeCount
+        ) {
+            end();
+            if (shouldCommit()) {
+                this.mapName = mapName;
+                this.randomSeed = randomSeed;
+                this.mapWidth = mapWidth;
+                this.mapHeight = mapHeight;
+                this.nodeCount = nodeCount;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.slow3586.Phase")
+    @Label("Generation Phase")
+    @Description("One phase of the generation, as listed in the phase report")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class PhaseEvent extends Event {
+        @Label("Map Name")
+        String mapName;
+        @Label("Phase")
+        String phase;
+        @Label("Node Count")
+        @Description("Nodes added during the phase")
+        int nodeCount;
+        @Label("Allocated")
+        @DataAmount
+        long allocatedBytes;
+
+        public void commit(
+            final String mapName,
+            final String phase,
+            final int nodeCount,
+            final long allocatedBytes
+        ) {
+            end();
+            if (shouldCommit()) {
+                this.mapName = mapName;
+                this.phase = phase;
+                this.nodeCount = nodeCount;
+                this.allocatedBytes = allocatedBytes;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.slow3586.Texture")
+    @Label("Texture Deployment")
+    @Description("Texture placed into the map's gfx directory")
+    @Category({CATEGORY, "I/O"})
+    @StackTrace(false)
+    public static final class TextureEvent extends Event {
+        @Label("Source")
+        String source;
+        @Label("Target")
+        String target;
+        @Label("Action")
+        @Description("SKIPPED if the target was up to date, otherwise LINKED or COPIED")
+        String action;
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+        public void commit(final Path source, final Path target, final String action) throws IOException {
+            end();
+            if (shouldCommit()) {
+                this.source = source.toString();
+                this.target = target.toString();
+                this.action = action;
+                this.bytes = Files.size(target);
+                commit();
+            }
+        }
+    }
+
+    @Name("com.slow3586.FileWrite")
+    @Label("Output File Write")
+    @Description("Map JSON, text output or config backup written")
+    @Category({CATEGORY, "I/O"})
+    @StackTrace(false)
+    public static final class FileWriteEvent extends Event {
+        @Label("Kind")
+        String kind;
+        @Label("Path")
+        String path;
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        public void commit(final String kind, final Path path) throws IOException {
+            end();
+            if (shouldCommit()) {
+                this.kind = kind;
+                this.path = path.toString();
+                this.bytesWritten = Files.size(path);
+                commit();
+            }
+        }
+    }
+}
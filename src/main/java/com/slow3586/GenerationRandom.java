@@ -0,0 +1,67 @@
+package com.slow3586;
+
+import lombok.AllArgsConstructor;
+
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic random stream of a single generation step.
+ * <p>
+ * A stream is derived by hashing the seed, the phase and two indexes (room or tile coordinates),
+ * so the values drawn for one room do not depend on how many values other rooms drew before it.
+ * Steps that use their own streams can run in any order, in parallel too, with the same result.
+ */
+public final class GenerationRandom {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    final boolean enabled;
+    final SplittableRandom random;
+
+    GenerationRandom(final boolean enabled, final long seed, final Phase phase, final long x, final long y) {
+        this.enabled = enabled;
+        this.random = new SplittableRandom(
+            mix(mix(mix(seed + GOLDEN_GAMMA * phase.id) + GOLDEN_GAMMA * x) + GOLDEN_GAMMA * y));
+    }
+
+    public int nextInt(int from, int to) {
+        try {
+            return enabled
+                ? random.nextInt(from, to)
+                : (int) Math.floor((double) (from + to) / 2);
+        } catch (Exception e) {
+            throw new RuntimeException("#nextInt " + from + " to " + to, e);
+        }
+    }
+
+    public float nextFloat(float from, float to) {
+        try {
+            return enabled
+                ? random.nextFloat(from, to)
+                : (int) Math.floor((double) (from + to) / 2);
+        } catch (Exception e) {
+            throw new RuntimeException("#nextFloat " + from + " to " + to, e);
+        }
+    }
+
+    // SplitMix64 finalizer
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Generation steps owning a random stream.
+     * Ids are part of the stream key and must not change, otherwise seeds produce different maps.
+     */
+    @AllArgsConstructor
+    public enum Phase {
+        ROOM_SIZES(0),
+        ROOM_STYLES(1),
+        ROOMS(2),
+        CRATE_RESOURCES(3),
+        ROOM_EFFECTS(4),
+        CRATES(5);
+
+        final int id;
+    }
+}
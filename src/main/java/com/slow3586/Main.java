@@ -1,30 +1,23 @@
 package com.slow3586;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JacksonException;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.slow3586.Main.Room.RoomStyle;
 import com.slow3586.Main.Settings.Node.ExternalResource;
 import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.Getter;
-import lombok.ToString;
 import lombok.Value;
 import org.jooq.lambda.Sneaky;
-import org.jooq.lambda.function.Consumer1;
-import org.jooq.lambda.function.Consumer2;
-import org.jooq.lambda.function.Consumer4;
-import org.jooq.lambda.function.Function1;
-import org.jooq.lambda.function.Function3;
 
 import java.awt.*;
 import java.io.File;
@@ -34,22 +27,23 @@ import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Random;
-import java.util.StringJoiner;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
-import java.util.function.Consumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
+import static com.slow3586.GenerationRandom.Phase.CRATES;
+import static com.slow3586.GenerationRandom.Phase.CRATE_RESOURCES;
+import static com.slow3586.GenerationRandom.Phase.ROOMS;
+import static com.slow3586.GenerationRandom.Phase.ROOM_EFFECTS;
+import static com.slow3586.GenerationRandom.Phase.ROOM_SIZES;
+import static com.slow3586.GenerationRandom.Phase.ROOM_STYLES;
 import static com.slow3586.Main.Color.WHITE;
-import static com.slow3586.Main.MapTile.TileType.DOOR;
-import static com.slow3586.Main.MapTile.TileType.WALL;
+import static com.slow3586.TileGrid.TileType.DOOR;
+import static com.slow3586.TileGrid.TileType.WALL;
 import static com.slow3586.Main.Settings.Layer;
 import static com.slow3586.Main.Settings.Node;
 import static com.slow3586.Main.Settings.Node.AsNonPhysical.AS_NON_PHYSICAL_DEFAULT;
@@ -76,9 +70,8 @@ import static com.slow3586.Main.Size.CRATE_SIZE;
 import static com.slow3586.Main.Size.TILE_SIZE;
 
 public class Main {
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-    static Random baseRandom;
-    static Configuration config;
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    static final String CONFIG_FILE_PATH = "config.json";
 
     static {
         OBJECT_MAPPER.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
@@ -86,377 +79,122 @@ public class Main {
     }
 
     public static void main(String[] args) throws IOException {
-        //region CONFIGURATION
-        final String configStr = Files.readString(Path.of("config.json"));
-        config = OBJECT_MAPPER.readValue(configStr, Configuration.class);
-        baseRandom = new Random(config.randomSeed);
-
-        final Path mapDirectory = Path.of(config.gameDirectoryPath, "user", "projects", config.mapName);
-        //endregion
+        if (args.length == 1 && args[0].equals("--watch")) {
+            WatchGenerator.run();
+            return;
+        }
+        if (args.length > 0) {
+            BatchGenerator.run(args);
+            return;
+        }
 
-        //region GENERATION: ROOMS
-        //region RANDOMIZE DIAGONAL ROOM SIZES
-        final Size[] diagonalRoomSizes = Stream.generate(() -> config.roomMinMaxSize.randomize())
-            .limit(Math.max(config.roomsCount.x, config.roomsCount.y))
-            .toArray(Size[]::new);
-        //endregion
+        final String configStr = Files.readString(Path.of(CONFIG_FILE_PATH));
+        generate(
+            OBJECT_MAPPER.readValue(configStr, Configuration.class),
+            configStr,
+            false);
+    }
 
-        //region RANDOMIZE ROOM STYLES
-        final RoomStyle[] styles = IntStream.range(0, config.styleCount)
-            .boxed()
-            .map(styleIndex ->
-                new RoomStyle(
-                    config.styleHeightOverride.length > styleIndex
-                        ? config.styleHeightOverride[styleIndex]
-                        : styleIndex,
-                    config.floorMinMaxTintBase
-                        .randomize()
-                        .add(config.floorTintPerHeight.mul(styleIndex)),
-                    config.wallMinMaxTintBase
-                        .randomize()
-                        .add(config.wallTintPerHeight.mul(styleIndex)),
-                    nextInt(1, config.patternResourceCount),
-                    nextInt(1, config.patternResourceCount),
-                    config.patternMinMaxTintFloor.randomize(),
-                    config.patternMinMaxTintWall.randomize())
-            ).toArray(RoomStyle[]::new);
-        //endregion
+    /**
+     * Generates a single map.
+     *
+     * @param config               parsed configuration of the map
+     * @param configStr            configuration text, saved as a backup next to the output
+     * @param outputToMapDirectory write text output and config backup into the map directory
+     *                             instead of the working directory (used by batch generation)
+     */
+    public static void generate(
+        final Configuration config,
+        final String configStr,
+        final boolean outputToMapDirectory
+    ) throws IOException {
+        //region CONFIGURATION
+        final GenerationEvents.MapEvent mapEvent = new GenerationEvents.MapEvent();
+        mapEvent.begin();
+        final PhaseMetrics metrics = new PhaseMetrics(config.mapName);
+        metrics.begin("CONFIGURATION");
+        final GenerationContext context = new GenerationContext(config);
 
-        final Room[][] rooms = new Room[config.roomsCount.y][config.roomsCount.x];
-        pointsRect(0, 0, config.roomsCount.x, config.roomsCount.y)
-            .forEach(roomIndex -> {
-                final boolean disableRoom = Arrays.asList(config.roomsDisabled).contains(roomIndex);
-                final boolean disableDoorRight =
-                    Arrays.asList(config.roomsDoorRightDisabled).contains(roomIndex)
-                        || (disableRoom && Arrays.asList(config.roomsDisabled).contains(roomIndex.add(Point.RIGHT)));
-                final boolean disableDoorDown =
-                    Arrays.asList(config.roomsDoorDownDisabled).contains(roomIndex)
-                        || (disableRoom && Arrays.asList(config.roomsDisabled).contains(roomIndex.add(Point.DOWN)));
-                //region CALCULATE ABSOLUTE ROOM POSITION
-                final Point roomPosAbs = new Point(
-                    Arrays.stream(diagonalRoomSizes)
-                        .limit(roomIndex.x)
-                        .map(Size::getW)
-                        .reduce(0, Integer::sum),
-                    Arrays.stream(diagonalRoomSizes)
-                        .limit(roomIndex.y)
-                        .map(Size::getH)
-                        .reduce(0, Integer::sum));
-                //endregion
-
-                //region RANDOMIZE WALL
-                final Size wallSize =
-                    config.wallMinMaxSize.randomize();
-                final Point wallOffset = new Point(
-                    -nextInt(0, Math.min(wallSize.w, config.wallMaxOffset.x)),
-                    -nextInt(0, Math.min(wallSize.h, config.wallMaxOffset.y)));
-                //endregion
-
-                //region RANDOMIZE DOOR
-                final Size roomFloorSpace = new Size(
-                    diagonalRoomSizes[roomIndex.x].w + wallOffset.y,
-                    diagonalRoomSizes[roomIndex.y].h + wallOffset.x);
-                final boolean needVerticalDoor =
-                    !disableDoorRight
-                        && roomIndex.x > 0
-                        && roomIndex.x < rooms[0].length - 1;
-                final boolean needHorizontalDoor =
-                    !disableDoorDown
-                        && roomIndex.y > 0
-                        && roomIndex.y < rooms.length - 1;
-                final Size doorSize = new Size(
-                    needHorizontalDoor
-                        ? Math.min(config.doorMinMaxWidth.randomizeWidth(), roomFloorSpace.w - 1)
-                        : 0,
-                    needVerticalDoor
-                        ? Math.min(config.doorMinMaxWidth.randomizeHeight(), roomFloorSpace.h - 1)
-                        : 0);
-                final Point doorOffset = new Point(
-                    needHorizontalDoor
-                        ? nextInt(1, roomFloorSpace.w - doorSize.w + 1)
-                        : 0,
-                    needVerticalDoor
-                        ? nextInt(1, roomFloorSpace.h - doorSize.h + 1)
-                        : 0);
-                //endregion
-
-                //region RANDOMIZE STYLE
-                final int styleIndex = nextInt(0, config.styleCount);
-                final Size styleSize = new Size(
-                    roomIndex.x == config.roomsCount.x - 1 ? 1
-                        : config.styleSizeMinMaxSize.randomizeWidth(),
-                    roomIndex.y == config.roomsCount.y - 1 ? 1
-                        : config.styleSizeMinMaxSize.randomizeHeight());
-                //endregion
-
-                //region PUT ROOM INTO ROOMS ARRAY
-                rooms[roomIndex.y][roomIndex.x] = new Room(
-                    roomPosAbs,
-                    new Size(
-                        diagonalRoomSizes[roomIndex.x].w,
-                        diagonalRoomSizes[roomIndex.y].h),
-                    new Room.Rect(
-                        wallOffset.x,
-                        wallSize.w),
-                    new Room.Rect(
-                        wallOffset.y,
-                        wallSize.h),
-                    new Room.Rect(
-                        doorOffset.x,
-                        doorSize.w),
-                    new Room.Rect(
-                        doorOffset.y,
-                        doorSize.h),
-                    styleIndex,
-                    styleSize,
-                    disableRoom);
-                //endregion
-            });
+        final Path mapDirectory = Path.of(config.gameDirectoryPath, "user", "projects", config.mapName);
+        final Path outputDirectory = outputToMapDirectory ? mapDirectory : Path.of("");
         //endregion
 
-        //region GENERATION: BASE MAP TILE ARRAY
-        final MapTile[][] mapTilesUncropped =
-            pointsRectRows(
-                Arrays.stream(diagonalRoomSizes)
-                    .mapToInt(r -> r.w
-                        + Math.max(config.styleSizeMinMaxSize.max.w, config.wallMaxOffset.x))
-                    .sum() + 1,
-                Arrays.stream(diagonalRoomSizes)
-                    .mapToInt(r -> r.h
-                        + Math.max(config.styleSizeMinMaxSize.max.h, config.wallMaxOffset.y))
-                    .sum() + 1)
-                .stream()
-                .map(row -> row.stream()
-                    .map(point -> new MapTile(
-                        MapTile.TileType.FLOOR,
-                        null,
-                        false,
-                        false,
-                        null))
-                    .toArray(MapTile[]::new)
-                ).toArray(MapTile[][]::new);
+        //region GENERATION: ROOM STYLES
+        metrics.begin("GENERATION: ROOM STYLES");
+        final RoomStyle[] styles = randomizeStyles(config, context);
         //endregion
 
-        //region GENERATION: RENDER BASE ROOMS ONTO BASE MAP TILE ARRAY
-        pointsRectArray(rooms)
-            .forEach(roomIndex -> {
-                final Room room = rooms[roomIndex.y][roomIndex.x];
-
-                //region FILL MAP TILES
-                //region WALL HORIZONTAL
-                pointsRect(
-                    room.roomPosAbs.x,
-                    room.roomPosAbs.y + room.roomSize.h + room.wallHoriz.offset,
-                    room.roomSize.w,
-                    room.wallHoriz.width
-                ).forEach(pointAbs -> {
-                    final boolean isDoorTile = (mapTilesUncropped[pointAbs.y][pointAbs.x].tileType == MapTile.TileType.DOOR)
-                        || (pointAbs.x >= room.roomPosAbs.x + room.doorHoriz.offset
-                        && pointAbs.x < room.roomPosAbs.x + room.doorHoriz.offset + room.doorHoriz.width);
-                    mapTilesUncropped[pointAbs.y][pointAbs.x].disabled = !isDoorTile;
-                    mapTilesUncropped[pointAbs.y][pointAbs.x].tileType =
-                        isDoorTile
-                            ? MapTile.TileType.DOOR
-                            : WALL;
-                });
-                //endregion
-
-                //region WALL VERTICAL
-                pointsRect(
-                    room.roomPosAbs.x + room.roomSize.w + room.wallVert.offset,
-                    room.roomPosAbs.y,
-                    room.wallVert.width,
-                    room.roomSize.h
-                ).forEach(pointAbs -> {
-                    final boolean isDoorTile = (mapTilesUncropped[pointAbs.y][pointAbs.x].tileType == MapTile.TileType.DOOR)
-                        || (pointAbs.y >= room.roomPosAbs.y + room.doorVert.offset
-                        && pointAbs.y < room.roomPosAbs.y + room.doorVert.offset + room.doorVert.width);
-                    mapTilesUncropped[pointAbs.y][pointAbs.x].disabled = !isDoorTile;
-                    mapTilesUncropped[pointAbs.y][pointAbs.x].tileType =
-                        isDoorTile
-                            ? MapTile.TileType.DOOR
-                            : WALL;
-                });
-                //endregion
-
-                //region DISABLE FLOOR
-                if (room.isDisabled()) {
-                    pointsRect(
-                        room.roomPosAbs.x,
-                        room.roomPosAbs.y,
-                        room.roomSize.w + room.wallVert.offset,
-                        room.roomSize.h + room.wallHoriz.offset
-                    ).forEach(pointAbs -> {
-                        final boolean isDoorTile = mapTilesUncropped[pointAbs.y][pointAbs.x].tileType == DOOR;
-                        mapTilesUncropped[pointAbs.y][pointAbs.x].disabled = !isDoorTile;
-                        mapTilesUncropped[pointAbs.y][pointAbs.x].tileType =
-                            isDoorTile
-                                ? MapTile.TileType.DOOR
-                                : WALL;
-                    });
-                }
-                //endregion
-
-                //region CARCASS HORIZONTAL
-                pointsRect(
-                    room.roomPosAbs.x,
-                    room.roomPosAbs.y + room.roomSize.h,
-                    room.roomSize.w,
-                    1
-                ).forEach(pointAbs ->
-                    mapTilesUncropped[pointAbs.y][pointAbs.x].carcass = true);
-                //endregion
-
-                //region CARCASS VERTICAL
-                pointsRect(
-                    room.roomPosAbs.x + room.roomSize.w,
-                    room.roomPosAbs.y,
-                    1,
-                    room.roomSize.h
-                ).forEach(pointAbs ->
-                    mapTilesUncropped[pointAbs.y][pointAbs.x].carcass = true);
-                //endregion
-
-                //region TILE ROOM TYPE
-                pointsRect(
-                    room.roomPosAbs.x,
-                    room.roomPosAbs.y,
-                    room.roomSize.w + room.styleSize.w,
-                    room.roomSize.h + room.styleSize.h
-                ).stream()
-                    .map(pointAbs -> mapTilesUncropped[pointAbs.y][pointAbs.x])
-                    .forEach(tile -> {
-                        if (tile.styleIndex == null) {
-                            tile.styleIndex = room.styleIndex;
-                        }
-                        tile.height = styles[room.styleIndex].height
-                            + (tile.tileType == WALL
-                            ? config.wallHeight
-                            : 0);
-                    });
-                //endregion
-                //endregion
-            });
-        //endregion
-
-        //region GENERATION: CROP MAP
-        final MapTile[][] mapTilesCrop;
-        if (config.cropMap) {
-            final Size croppedMapSize = new Size(
-                Arrays.stream(diagonalRoomSizes)
-                    .limit(rooms[0].length)
-                    .map(s -> s.w)
-                    .reduce(0, Integer::sum)
-                    - diagonalRoomSizes[0].w
-                    + 1,
-                Arrays.stream(diagonalRoomSizes)
-                    .limit(rooms.length)
-                    .map(s -> s.h)
-                    .reduce(0, Integer::sum)
-                    - diagonalRoomSizes[0].h
-                    + 1);
-
-            final MapTile[][] temp = new MapTile[croppedMapSize.h][croppedMapSize.w];
-            for (int y = 0; y < croppedMapSize.h; y++) {
-                temp[y] = Arrays.copyOfRange(
-                    mapTilesUncropped[y + diagonalRoomSizes[0].h],
-                    diagonalRoomSizes[0].w,
-                    diagonalRoomSizes[0].w + croppedMapSize.w);
-            }
-
-            mapTilesCrop = temp;
+        //region GENERATION: GEOMETRY
+        final Room[][] rooms;
+        // null if chunked, tiles are then generated chunk by chunk along with the nodes
+        final TileGrid mapTilesCrop;
+        final ShadowEngine shadows;
+        final Point cropOffset;
+        final Point mapOrigin;
+        final ChunkedGenerator chunkedGenerator;
+        if (config.chunkRoomRows > 0) {
+            metrics.begin("GENERATION: RANDOMIZE DIAGONAL ROOM SIZES");
+            final RoomLayout roomLayout = new RoomLayout(randomizeDiagonalRoomSizes(config, context));
+            metrics.begin("GENERATION: ROOMS");
+            rooms = generateRooms(config, context, roomLayout);
+            chunkedGenerator = new ChunkedGenerator(config, context, styles, rooms, roomLayout, metrics);
+            mapTilesCrop = null;
+            shadows = chunkedGenerator.shadowResources();
+            cropOffset = roomLayout.cropOffset();
+            mapOrigin = chunkedGenerator.mapOrigin;
         } else {
-            mapTilesCrop = mapTilesUncropped;
+            metrics.begin("GENERATION: GEOMETRY CACHE LOAD");
+            final PhaseCache phaseCache = PhaseCache.of(config, configStr);
+            final Geometry geometry = phaseCache.loadGeometry(config)
+                .orElseGet(Sneaky.supplier(() -> {
+                    final Geometry generated = generateGeometry(config, context, styles, metrics);
+                    metrics.begin("GENERATION: GEOMETRY CACHE SAVE");
+                    phaseCache.saveGeometry(generated);
+                    return generated;
+                }));
+            rooms = geometry.rooms;
+            mapTilesCrop = geometry.tiles;
+            shadows = geometry.shadows;
+            final RoomLayout roomLayout = new RoomLayout(geometry.diagonalRoomSizes);
+            cropOffset = roomLayout.cropOffset();
+            mapOrigin = mapOrigin(config, roomLayout);
+            chunkedGenerator = null;
         }
-        //endregion
-
-        //region GENERATION: FIX MOST DOWN RIGHT TILE
-        mapTilesCrop[mapTilesCrop.length - 1][mapTilesCrop[0].length - 1] =
-            mapTilesCrop[mapTilesCrop.length - 1][mapTilesCrop[0].length - 2];
-        //endregion
-
-        //region GENERATION: FIX DIAGONAL WALLS TOUCH WITH EMPTY SIDES
-        // #_    _#
-        // _# OR #_
-        final Function1<MapTile, Boolean> isWall = (s) -> s.tileType == MapTile.TileType.WALL;
-        for (int iter = 0; iter < 2; iter++) {
-            for (int y = 1; y < mapTilesCrop.length - 1; y++) {
-                for (int x = 1; x < mapTilesCrop[y].length - 1; x++) {
-                    final boolean wall = isWall.apply(mapTilesCrop[y][x]);
-                    final boolean wallR = isWall.apply(mapTilesCrop[y][x + 1]);
-                    final boolean wallD = isWall.apply(mapTilesCrop[y + 1][x]);
-                    final boolean wallRD = isWall.apply(mapTilesCrop[y + 1][x + 1]);
-                    if ((wall && wallRD && !wallR && !wallD)
-                        || (!wall && !wallRD && wallR && wallD)
-                    ) {
-                        if (wall)
-                            mapTilesCrop[y][x].height -= config.wallHeight;
-                        mapTilesCrop[y][x].tileType = MapTile.TileType.FLOOR;
-                        if (wallR)
-                            mapTilesCrop[y][x + 1].height -= config.wallHeight;
-                        mapTilesCrop[y][x + 1].tileType = MapTile.TileType.FLOOR;
-                        if (wallD)
-                            mapTilesCrop[y + 1][x].height -= config.wallHeight;
-                        mapTilesCrop[y + 1][x].tileType = MapTile.TileType.FLOOR;
-                        if (wallRD)
-                            mapTilesCrop[y + 1][x + 1].height -= config.wallHeight;
-                        mapTilesCrop[y + 1][x + 1].tileType = MapTile.TileType.FLOOR;
-                    }
-                }
-            }
+        final Size mapSize = chunkedGenerator != null
+            ? chunkedGenerator.getMapSize()
+            : new Size(mapTilesCrop.width, mapTilesCrop.height);
+        if (outputToMapDirectory) {
+            Files.createDirectories(mapDirectory);
         }
         //endregion
 
         //region OUTPUT: PRINT MAP TO TEXT FILE
-        final StringJoiner wallJoiner = new StringJoiner("\n");
-        wallJoiner.add("Walls:");
-        final StringJoiner heightJoiner = new StringJoiner("\n");
-        heightJoiner.add("Heights:");
-        final StringJoiner styleIndexJoiner = new StringJoiner("\n");
-        styleIndexJoiner.add("Styles:");
-        final StringJoiner carcassJoiner = new StringJoiner("\n");
-        carcassJoiner.add("Carcass:");
-
-        pointsRectArrayByRow(mapTilesCrop)
-            .forEach(row -> {
-                final StringBuilder wallJoinerRow = new StringBuilder();
-                final StringBuilder heightJoinerRow = new StringBuilder();
-                final StringBuilder styleIndexJoinerRow = new StringBuilder();
-                final StringBuilder carcassJoinerRow = new StringBuilder();
-                row.forEach(point -> {
-                    final MapTile mapTile = mapTilesCrop[point.y][point.x];
-                    wallJoinerRow.append(
-                        mapTile.tileType == WALL
-                            ? "#"
-                            : mapTile.tileType == MapTile.TileType.DOOR
-                                ? "."
-                                : "_");
-                    heightJoinerRow.append(mapTile.height);
-                    styleIndexJoinerRow.append(mapTile.styleIndex);
-                    carcassJoinerRow.append(
-                        mapTile.disabled && !mapTile.carcass
-                            ? "X"
-                            : mapTile.carcass || point.x == 0 || point.y == 0
-                                ? "#"
-                                : "_");
-                });
-                wallJoiner.add(wallJoinerRow.toString());
-                heightJoiner.add(heightJoinerRow.toString());
-                styleIndexJoiner.add(styleIndexJoinerRow.toString());
-                carcassJoiner.add(carcassJoinerRow.toString());
-            });
-
-        final StringJoiner textJoiner = new StringJoiner("\n\n");
-        textJoiner.add(carcassJoiner.toString());
-        textJoiner.add(wallJoiner.toString());
-        textJoiner.add(heightJoiner.toString());
-        textJoiner.add(styleIndexJoiner.toString());
+        final boolean textOutput = config.outputTextFilePath != null && !config.outputTextFilePath.isEmpty();
+        if (textOutput && chunkedGenerator == null) {
+            metrics.begin("OUTPUT: PRINT MAP TO TEXT FILE");
+            final GenerationEvents.FileWriteEvent textEvent = new GenerationEvents.FileWriteEvent();
+            textEvent.begin();
+            final Path outputTextPath = outputDirectory.resolve(config.outputTextFilePath);
+            TextMapWriter.write(outputTextPath, config.outputTextFormat, mapTilesCrop);
+            textEvent.commit("text output", outputTextPath);
+        }
+        //endregion
 
-        Files.write(Path.of(config.outputTextFilePath), textJoiner.toString().getBytes());
+        //region OUTPUT: SNAPSHOT
+        final boolean snapshotOutput = config.snapshotFilePath != null && !config.snapshotFilePath.isEmpty();
+        if (snapshotOutput && chunkedGenerator == null) {
+            metrics.begin("OUTPUT: SNAPSHOT");
+            final GenerationEvents.FileWriteEvent snapshotEvent = new GenerationEvents.FileWriteEvent();
+            snapshotEvent.begin();
+            final Path snapshotPath = outputDirectory.resolve(config.snapshotFilePath);
+            MapSnapshot.write(snapshotPath, rooms, styles, mapOrigin, mapTilesCrop);
+            snapshotEvent.commit("snapshot", snapshotPath);
+        }
         //endregion
 
         //region OUTPUT: CREATE MAP JSON FILE
         //region BASE MAP JSON OBJECT
+        metrics.begin("RESOURCES");
         final Map mapJson = new Map(
             new Meta(
                 config.gameVersion,
@@ -471,7 +209,8 @@ public class Main {
             List.of(new Layer(
                 "default",
                 new ArrayList<>())),
-            new ArrayList<>());
+            new ArrayList<>(),
+            context);
         //endregion
 
         //region RESOURCES: FUNCTIONS
@@ -480,27 +219,18 @@ public class Main {
         if (!Files.exists(mapGfxPath)) {
             Files.createDirectories(mapGfxPath);
         }
-        final BiConsumer<String, String> createTexture = Sneaky.biConsumer(
-            (sourceFilename, targetFilename) -> {
-                final Path sourcePath = texturesDir.toPath().resolve(sourceFilename + PNG_EXT);
-                final Path targetPath = mapGfxPath.resolve(targetFilename + PNG_EXT);
-                if (Files.exists(targetPath))
-                    Files.delete(targetPath);
-                Files.copy(sourcePath, targetPath);
-            });
-        final Consumer<String> createTextureSameName = Sneaky.consumer(
-            (filename) -> createTexture.accept(filename, filename));
-        final Function3<Integer, Integer, Boolean, String> getCrateName = (
-            final Integer roomStyleIndex,
-            final Integer crateStyleIndex,
-            final Boolean isBlocking
-        ) -> "style"
-            + roomStyleIndex
-            + "_crate"
-            + crateStyleIndex
-            + "_"
-            + (isBlocking ? "" : "non")
-            + "blocking";
+        final FileHashCache hashCache = FileHashCache.forFile(config.hashCacheFilePath);
+        final TextureDeployer textureDeployer = new TextureDeployer(
+            texturesDir.toPath(),
+            mapGfxPath,
+            hashCache,
+            config.deployTexturesAsHardLinks);
+        // returns file hash of the created texture
+        final BiFunction<String, String, String> createTexture = Sneaky.biFunction(
+            (sourceFilename, targetFilename) ->
+                textureDeployer.deploy(sourceFilename + PNG_EXT, targetFilename + PNG_EXT));
+        final Function<String, String> createTextureSameName =
+            (filename) -> createTexture.apply(filename, filename);
         //endregion
 
         //region RESOURCES: ROOMS
@@ -508,11 +238,11 @@ public class Main {
             ExternalResource.builder()
                 .path(MAP_GFX_PATH + ROOM_NOISE_CIRCLE + PNG_EXT)
                 .id(RESOURCE_ID_PREFIX + ROOM_NOISE_CIRCLE)
+                .file_hash(createTextureSameName.apply(ROOM_NOISE_CIRCLE))
                 .stretch_when_resized(true)
                 .domain(DOMAIN_FOREGROUND)
                 .color(new Color(255, 255, 255, 150).intArray())
                 .build());
-        createTextureSameName.accept(ROOM_NOISE_CIRCLE);
         //endregion
 
         //region RESOURCES: STYLES
@@ -525,52 +255,57 @@ public class Main {
                     ExternalResource.builder()
                         .path(MAP_GFX_PATH + floorId + PNG_EXT)
                         .id(RESOURCE_ID_PREFIX + floorId)
+                        .file_hash(createTexture.apply(BASE_PNG_TEXTURE_FILENAME, floorId))
                         .color(style.floorColor.intArray())
                         .build());
-                createTexture.accept(BASE_PNG_TEXTURE_FILENAME, floorId);
 
                 final String wallId = RESOURCE_WALL_ID + roomStyleIndex;
                 mapJson.external_resources.add(
                     ExternalResource.builder()
                         .path(MAP_GFX_PATH + wallId + PNG_EXT)
                         .id(RESOURCE_ID_PREFIX + wallId)
+                        .file_hash(createTexture.apply(BASE_PNG_TEXTURE_FILENAME, wallId))
                         .domain(DOMAIN_PHYSICAL)
                         .color(style.wallColor.intArray())
                         .as_physical(AS_PHYSICAL_DEFAULT)
                         .build());
-                createTexture.accept(BASE_PNG_TEXTURE_FILENAME, wallId);
 
                 final String patternWallTarget = "style" + roomStyleIndex + "_pattern_wall";
                 mapJson.external_resources.add(
                     ExternalResource.builder()
                         .path(MAP_GFX_PATH + patternWallTarget + PNG_EXT)
                         .id(RESOURCE_ID_PREFIX + patternWallTarget)
+                        .file_hash(createTexture.apply("pattern" + style.patternIdWall, patternWallTarget))
                         .domain(DOMAIN_FOREGROUND)
                         .color(style.patternColorWall.intArray())
                         .build());
-                createTexture.accept("pattern" + style.patternIdWall, patternWallTarget);
 
                 final String patternFloorTarget = "style" + roomStyleIndex + "_pattern_floor";
                 mapJson.external_resources.add(
                     ExternalResource.builder()
                         .path(MAP_GFX_PATH + patternFloorTarget + PNG_EXT)
                         .id(RESOURCE_ID_PREFIX + patternFloorTarget)
+                        .file_hash(createTexture.apply("pattern" + style.patternIdFloor, patternFloorTarget))
                         .color(style.patternColorFloor.intArray())
                         .build());
-                createTexture.accept("pattern" + style.patternIdFloor, patternFloorTarget);
                 final BiConsumer<Integer, Boolean> createCrate = (
                     final Integer crateStyleIndex,
                     final Boolean isBlocking
                 ) -> {
-                    final String crateName = getCrateName.apply(
+                    final String crateName = crateName(
                         roomStyleIndex,
                         crateStyleIndex,
                         isBlocking);
-                    final float sizeMultiplier = config.crateMinMaxSizeMultiplier.randomize();
+                    final GenerationRandom random = context.random(
+                        CRATE_RESOURCES,
+                        roomStyleIndex,
+                        crateStyleIndex * 2 + (isBlocking ? 1 : 0));
+                    final float sizeMultiplier = config.crateMinMaxSizeMultiplier.randomize(random);
                     mapJson.external_resources.add(
                         ExternalResource.builder()
                             .path(MAP_GFX_PATH + crateName + PNG_EXT)
                             .id(RESOURCE_ID_PREFIX + crateName)
+                            .file_hash(createTexture.apply(isBlocking ? CRATE_BLOCKING : CRATE_NON_BLOCKING, crateName))
                             .domain(DOMAIN_PHYSICAL)
                             .stretch_when_resized(true)
                             .size(CRATE_SIZE
@@ -579,7 +314,7 @@ public class Main {
                             .color((isBlocking
                                 ? config.crateBlockingMinMaxTint
                                 : config.crateNonBlockingMinMaxTint)
-                                .randomize()
+                                .randomize(random)
                                 .intArray()
                             ).as_physical(Node.AsPhysical.builder()
                                 .custom_shape(Node.AsPhysical.CustomShape
@@ -589,14 +324,13 @@ public class Main {
                                 .is_shoot_through(!isBlocking)
                                 .is_melee_throw_through(!isBlocking)
                                 .is_throw_through(!isBlocking)
-                                .density(nextFloat(0.6f, 1.3f))
-                                .friction(nextFloat(0.0f, 0.5f))
-                                .bounciness(nextFloat(0.1f, 0.6f))
-                                .penetrability(nextFloat(0.0f, 1.0f))
-                                .angular_damping(nextFloat(10f, 100f))
+                                .density(random.nextFloat(0.6f, 1.3f))
+                                .friction(random.nextFloat(0.0f, 0.5f))
+                                .bounciness(random.nextFloat(0.1f, 0.6f))
+                                .penetrability(random.nextFloat(0.0f, 1.0f))
+                                .angular_damping(random.nextFloat(10f, 100f))
                                 .build())
                             .build());
-                    createTexture.accept(isBlocking ? CRATE_BLOCKING : CRATE_NON_BLOCKING, crateName);
                 };
 
                 IntStream.range(0, config.cratesBlockingPerStyle)
@@ -611,371 +345,819 @@ public class Main {
             ExternalResource.builder()
                 .path(MAP_GFX_PATH + SHADOW_WALL_CORNER + PNG_EXT)
                 .id(RESOURCE_ID_PREFIX + SHADOW_WALL_CORNER)
+                .file_hash(createTextureSameName.apply(SHADOW_WALL_CORNER))
                 .domain(DOMAIN_FOREGROUND)
-                .color(config.shadowTintWall.intArray())
+                .color(shadows.resourceTint(ShadowEngine.Type.WALL_CORNER).intArray())
                 .as_nonphysical(AS_NON_PHYSICAL_DEFAULT)
                 .build());
-        createTextureSameName.accept(SHADOW_WALL_CORNER);
 
         mapJson.external_resources.add(
             ExternalResource.builder()
                 .path(MAP_GFX_PATH + SHADOW_WALL_LINE + PNG_EXT)
                 .id(RESOURCE_ID_PREFIX + SHADOW_WALL_LINE)
+                .file_hash(createTextureSameName.apply(SHADOW_WALL_LINE))
                 .domain(DOMAIN_FOREGROUND)
-                .color(config.shadowTintWall.intArray())
+                .color(shadows.resourceTint(ShadowEngine.Type.WALL_LINE).intArray())
                 .as_nonphysical(AS_NON_PHYSICAL_DEFAULT)
                 .build());
-        createTextureSameName.accept(SHADOW_WALL_LINE);
 
         mapJson.external_resources.add(
             ExternalResource.builder()
                 .path(MAP_GFX_PATH + SHADOW_FLOOR_LINE + PNG_EXT)
                 .id(RESOURCE_ID_PREFIX + SHADOW_FLOOR_LINE)
-                .color(config.shadowTintFloor.intArray())
+                .file_hash(createTextureSameName.apply(SHADOW_FLOOR_LINE))
+                .color(shadows.resourceTint(ShadowEngine.Type.FLOOR_LINE).intArray())
                 .as_nonphysical(AS_NON_PHYSICAL_DEFAULT)
                 .build());
-        createTextureSameName.accept(SHADOW_FLOOR_LINE);
 
         mapJson.external_resources.add(
             ExternalResource.builder()
                 .path(MAP_GFX_PATH + SHADOW_FLOOR_CORNER + PNG_EXT)
                 .id(RESOURCE_ID_PREFIX + SHADOW_FLOOR_CORNER)
-                .color(config.shadowTintFloor.intArray())
+                .file_hash(createTextureSameName.apply(SHADOW_FLOOR_CORNER))
+                .color(shadows.resourceTint(ShadowEngine.Type.FLOOR_CORNER).intArray())
                 .as_nonphysical(AS_NON_PHYSICAL_DEFAULT)
                 .build());
-        createTextureSameName.accept(SHADOW_FLOOR_CORNER);
 
         mapJson.external_resources.add(
             ExternalResource.builder()
                 .path(MAP_GFX_PATH + LINE_FLOOR + PNG_EXT)
                 .id(RESOURCE_ID_PREFIX + LINE_FLOOR)
+                .file_hash(createTextureSameName.apply(LINE_FLOOR))
                 .color(config.blackLineFloorTint.intArray())
                 .as_nonphysical(AS_NON_PHYSICAL_DEFAULT)
                 .build());
-        createTextureSameName.accept(LINE_FLOOR);
 
         mapJson.external_resources.add(
             ExternalResource.builder()
                 .path(MAP_GFX_PATH + LINE_WALL + PNG_EXT)
                 .id(RESOURCE_ID_PREFIX + LINE_WALL)
+                .file_hash(createTextureSameName.apply(LINE_WALL))
                 .color(config.blackLineWallTint.intArray())
                 .as_nonphysical(AS_NON_PHYSICAL_DEFAULT)
                 .build());
-        createTextureSameName.accept(LINE_WALL);
+        hashCache.save();
         //endregion
 
-        //region NODES: SHADOWS
-        pointsRectArray(mapTilesCrop).forEach(thisPoint -> {
-            final MapTile currentTile = mapTilesCrop[thisPoint.y][thisPoint.x];
-            final boolean thisIsWall = isWall.apply(currentTile);
-            final Function1<Point, ShadowCalcTileInfo.Entry> getEntry = (thatPointAdd) -> {
-                final Point thatPoint = thisPoint.add(thatPointAdd);
-                final MapTile otherTile = (thatPoint.x < 0
-                    || thatPoint.y < 0
-                    || thatPoint.x >= mapTilesCrop[0].length
-                    || thatPoint.y >= mapTilesCrop.length)
-                    ? MapTile.VIRTUAL_TILE
-                    : mapTilesCrop[thatPoint.y][thatPoint.x];
-                final boolean thatIsWall = otherTile.tileType == WALL;
-                final int hDif = otherTile.height - currentTile.height;
-                final boolean sameStyle = Objects.equals(otherTile.styleIndex, currentTile.styleIndex);
-                final boolean needLine = hDif != 0 || !sameStyle;
-                final boolean higher = hDif > 0;
-                return new ShadowCalcTileInfo.Entry(
-                    hDif,
-                    thatIsWall,
-                    sameStyle,
-                    needLine,
-                    higher,
-                    thatPointAdd);
-            };
-            final ShadowCalcTileInfo info = new ShadowCalcTileInfo(
-                getEntry.apply(Point.LEFT),
-                getEntry.apply(Point.UP),
-                getEntry.apply(Point.RIGHT),
-                getEntry.apply(Point.DOWN),
-                getEntry.apply(Point.UP_LEFT),
-                getEntry.apply(Point.UP_RIGHT),
-                getEntry.apply(Point.DOWN_LEFT),
-                getEntry.apply(Point.DOWN_RIGHT));
-            final Consumer2<Integer, ShadowCalcTileInfo.Entry> addShadowLine = (rot, infoEntry) ->
-                mapJson.addShadowLine(thisPoint,
-                    rot,
-                    infoEntry.hDif,
-                    thisIsWall,
-                    infoEntry.isWall);
-            final Consumer4<Integer, ShadowCalcTileInfo.Entry, ShadowCalcTileInfo.Entry, ShadowCalcTileInfo.Entry>
-                addShadowCorner = (rot, infoDiag, info0, info1) -> mapJson.addShadowCorner(
-                thisPoint,
-                rot,
-                infoDiag.hDif - Math.max(info0.hDif, info1.hDif),
-                thisIsWall,
-                infoDiag.isWall);
-            final Consumer1<Integer> addBlackLine = (rot) ->
-                mapJson.addBlackLine(thisPoint, rot, thisIsWall);
-
-            addShadowLine.accept(0, info.left);
-            addShadowLine.accept(90, info.up);
-            addShadowLine.accept(180, info.right);
-            addShadowLine.accept(-90, info.down);
-            addShadowCorner.accept(0, info.downLeft, info.down, info.left);
-            addShadowCorner.accept(90, info.upLeft, info.up, info.left);
-            addShadowCorner.accept(180, info.upRight, info.up, info.right);
-            addShadowCorner.accept(-90, info.downRight, info.down, info.right);
-            if (info.left.needLine) addBlackLine.accept(0);
-            if (info.up.needLine) addBlackLine.accept(90);
-            if (info.right.needLine) addBlackLine.accept(180);
-            if (info.down.needLine) addBlackLine.accept(-90);
+        //region NODES: OUTPUT
+        final Path mapJsonFilePath = mapDirectory.resolve(config.mapName + ".json");
+        final StreamingMapWriter streamingMapWriter = config.streamJsonOutput || chunkedGenerator != null
+            ? new StreamingMapWriter(mapJsonFilePath, mapJson, OBJECT_MAPPER)
+            : null;
+        final MapPreview preview = config.previewFilePath != null && !config.previewFilePath.isEmpty()
+            ? new MapPreview(config, styles, mapSize.getW(), mapSize.getH())
+            : null;
+        final NodeSink outputNodes = streamingMapWriter != null ? streamingMapWriter : mapJson;
+        final NodeSink mapNodes = metrics.countNodes(
+            preview != null ? preview.capture(outputNodes) : outputNodes);
+        //endregion
+
+        if (chunkedGenerator != null) {
+            //region NODES: CHUNKS
+            try (final TextMapWriter textWriter = textOutput
+                ? new TextMapWriter(
+                outputDirectory.resolve(config.outputTextFilePath),
+                config.outputTextFormat,
+                mapSize.getW(),
+                mapSize.getH())
+                : null;
+                final MapSnapshot.Writer snapshotWriter = snapshotOutput
+                ? new MapSnapshot.Writer(
+                outputDirectory.resolve(config.snapshotFilePath),
+                rooms,
+                styles,
+                mapOrigin,
+                mapSize.getW(),
+                mapSize.getH())
+                : null
+            ) {
+                chunkedGenerator.generate(mapNodes, textWriter, snapshotWriter, preview);
+            }
+            //endregion
+        } else {
+            //region NODES: SHADOWS
+            metrics.begin("NODES: SHADOWS");
+            shadows.emit(mapNodes);
+            //endregion
+
+            //region NODES: ROOM EFFECTS
+            metrics.begin("NODES: ROOM EFFECTS");
+            addRoomEffectNodes(config, context, rooms, mapTilesCrop, cropOffset, mapNodes);
+            //endregion
+
+            //region NODES: MAP TILES
+            metrics.begin("NODES: MAP TILES");
+            addTileNodes(config, mapTilesCrop, mapNodes);
+            //endregion
+
+            //region NODES: CRATES
+            metrics.begin("NODES: CRATES");
+            addCrateNodes(config, context, rooms, cropOffset, mapNodes);
+            //endregion
+        }
+
+        //region NODES: SPAWNS/BOMB SITES
+        metrics.begin("NODES: SPAWNS/BOMB SITES");
+        final Room spawnTRoom = rooms[rooms.length / 2 - 1][0];
+        final Room spawnCTRoom = rooms[rooms.length / 2 - 1][rooms[0].length - 2];
+        final Room siteARoom = rooms[0][rooms[0].length - 3];
+        final Room siteBRoom = rooms[rooms.length - 2][rooms[0].length - 3];
+        mapNodes.addBombSiteA(
+            siteARoom.roomPosAbs.x + siteARoom.roomSize.w / 2,
+            siteARoom.roomPosAbs.y + siteARoom.roomSize.h / 2,
+            siteARoom.roomSize.w,
+            siteARoom.roomSize.h);
+        mapNodes.addBombSiteB(
+            siteBRoom.roomPosAbs.x + siteBRoom.roomSize.w / 2,
+            siteBRoom.roomPosAbs.y + siteBRoom.roomSize.h / 2,
+            siteBRoom.roomSize.w,
+            siteBRoom.roomSize.h);
+        mapNodes.addSpawnT(
+            spawnTRoom.roomPosAbs.x + spawnTRoom.roomSize.w / 2,
+            spawnTRoom.roomPosAbs.y + spawnTRoom.roomSize.h / 2,
+            spawnTRoom.roomSize.w,
+            spawnTRoom.roomSize.h);
+        mapNodes.addSpawnCT(
+            spawnCTRoom.roomPosAbs.x + spawnCTRoom.roomSize.w / 2,
+            spawnCTRoom.roomPosAbs.y + spawnCTRoom.roomSize.h / 2,
+            spawnCTRoom.roomSize.w,
+            spawnCTRoom.roomSize.h);
+        //endregion
+
+        //region OUTPUT: PREVIEW
+        if (preview != null) {
+            metrics.begin("OUTPUT: PREVIEW");
+            if (chunkedGenerator == null) {
+                preview.renderTiles(mapTilesCrop, 0, mapTilesCrop.height);
+                preview.renderShadows(shadows);
+            }
+            final GenerationEvents.FileWriteEvent previewEvent = new GenerationEvents.FileWriteEvent();
+            previewEvent.begin();
+            final Path previewPath = outputDirectory.resolve(config.previewFilePath);
+            preview.write(previewPath);
+            previewEvent.commit("preview", previewPath);
+        }
+        //endregion
+
+        //region WRITE JSON FILE
+        metrics.begin("WRITE JSON FILE");
+        System.out.println("Writing to " + mapJsonFilePath);
+        final GenerationEvents.FileWriteEvent jsonEvent = new GenerationEvents.FileWriteEvent();
+        jsonEvent.begin();
+        if (streamingMapWriter != null) {
+            streamingMapWriter.close();
+        } else {
+            OBJECT_MAPPER.writeValue(mapJsonFilePath.toFile(), mapJson);
+        }
+        jsonEvent.commit("map json", mapJsonFilePath);
+
+        final GenerationEvents.FileWriteEvent configEvent = new GenerationEvents.FileWriteEvent();
+        configEvent.begin();
+        final Path configBackupPath = outputDirectory.resolve("config_"
+            + config.mapName
+            + "_"
+            + LocalDateTime.now().format(DateTimeFormatter.ofPattern("ddMMyy_HHmmss"))
+            + ".json");
+        Files.write(configBackupPath, configStr.getBytes());
+        configEvent.commit("config backup", configBackupPath);
+        //endregion
+        //endregion
+
+        //region OUTPUT: PHASE REPORT
+        final PhaseMetrics.Report report = metrics.report(config.randomSeed);
+        if (config.phaseReportFilePath != null && !config.phaseReportFilePath.isEmpty()) {
+            OBJECT_MAPPER.writerWithDefaultPrettyPrinter()
+                .writeValue(outputDirectory.resolve(config.phaseReportFilePath).toFile(), report);
+        }
+        if (config.printPhaseReport) {
+            System.out.print(report.summaryTable());
+        }
+        mapEvent.commit(config.mapName, config.randomSeed, mapSize.w, mapSize.h, metrics.nodeCount());
+        //endregion
+    }
+
+    /**
+     * Generates everything that doesn't depend on colors: rooms, tiles and shadows.
+     */
+    static Geometry generateGeometry(
+        final Configuration config,
+        final GenerationContext context,
+        final RoomStyle[] styles,
+        final PhaseMetrics metrics
+    ) {
+        //region GENERATION: RANDOMIZE DIAGONAL ROOM SIZES
+        metrics.begin("GENERATION: RANDOMIZE DIAGONAL ROOM SIZES");
+        final Size[] diagonalRoomSizes = randomizeDiagonalRoomSizes(config, context);
+        final RoomLayout roomLayout = new RoomLayout(diagonalRoomSizes);
+        //endregion
+
+        metrics.begin("GENERATION: ROOMS");
+        final Room[][] rooms = generateRooms(config, context, roomLayout);
+        metrics.begin("GENERATION: RENDER ROOMS");
+        final TileGrid mapTilesUncropped = renderRooms(config, styles, rooms, roomLayout);
+        metrics.begin("GENERATION: CROP MAP");
+        final TileGrid mapTilesCrop = cropMap(config, mapTilesUncropped, rooms, roomLayout);
+        metrics.begin("GENERATION: FIX DIAGONAL WALLS");
+        fixDiagonalWalls(config, mapTilesCrop);
+
+        //region GENERATION: SHADOWS
+        metrics.begin("GENERATION: SHADOWS");
+        final ShadowEngine shadows = ShadowEngine.compute(mapTilesCrop, config);
+        //endregion
+
+        return new Geometry(diagonalRoomSizes, rooms, mapTilesCrop, shadows);
+    }
+
+    static RoomStyle[] randomizeStyles(final Configuration config, final GenerationContext context) {
+        return IntStream.range(0, config.styleCount)
+            .boxed()
+            .map(styleIndex -> {
+                final GenerationRandom random = context.random(ROOM_STYLES, styleIndex);
+                return new RoomStyle(
+                    config.styleHeightOverride.length > styleIndex
+                        ? config.styleHeightOverride[styleIndex]
+                        : styleIndex,
+                    config.floorMinMaxTintBase
+                        .randomize(random)
+                        .add(config.floorTintPerHeight.mul(styleIndex)),
+                    config.wallMinMaxTintBase
+                        .randomize(random)
+                        .add(config.wallTintPerHeight.mul(styleIndex)),
+                    random.nextInt(1, config.patternResourceCount),
+                    random.nextInt(1, config.patternResourceCount),
+                    config.patternMinMaxTintFloor.randomize(random),
+                    config.patternMinMaxTintWall.randomize(random));
+            }).toArray(RoomStyle[]::new);
+    }
+
+    static Size[] randomizeDiagonalRoomSizes(final Configuration config, final GenerationContext context) {
+        return IntStream.range(0, Math.max(config.roomsCount.x, config.roomsCount.y))
+            .mapToObj(index -> config.roomMinMaxSize.randomize(context.random(ROOM_SIZES, index)))
+            .toArray(Size[]::new);
+    }
+
+    static Room[][] generateRooms(
+        final Configuration config,
+        final GenerationContext context,
+        final RoomLayout roomLayout
+    ) {
+        //region GENERATION: ROOMS
+        final RoomMask roomsDisabled = RoomMask.of(config.roomsCount, config.roomsDisabled);
+        final RoomMask roomsDoorRightDisabled = RoomMask.of(config.roomsCount, config.roomsDoorRightDisabled);
+        final RoomMask roomsDoorDownDisabled = RoomMask.of(config.roomsCount, config.roomsDoorDownDisabled);
+        final Room[][] rooms = new Room[config.roomsCount.y][config.roomsCount.x];
+        forEachPointParallel(0, 0, config.roomsCount.x, config.roomsCount.y, (roomX, roomY) -> {
+            final Point roomIndex = new Point(roomX, roomY);
+            final GenerationRandom random = context.random(ROOMS, roomIndex.x, roomIndex.y);
+            final boolean disableRoom = roomsDisabled.contains(roomIndex);
+            final boolean disableDoorRight =
+                roomsDoorRightDisabled.contains(roomIndex)
+                    || (disableRoom && roomsDisabled.contains(roomIndex.add(Point.RIGHT)));
+            final boolean disableDoorDown =
+                roomsDoorDownDisabled.contains(roomIndex)
+                    || (disableRoom && roomsDisabled.contains(roomIndex.add(Point.DOWN)));
+            //region CALCULATE ABSOLUTE ROOM POSITION
+            final Point roomPosAbs = roomLayout.roomPosition(roomIndex.x, roomIndex.y);
+            //endregion
+
+            //region RANDOMIZE WALL
+            final Size wallSize =
+                config.wallMinMaxSize.randomize(random);
+            final Point wallOffset = new Point(
+                -random.nextInt(0, Math.min(wallSize.w, config.wallMaxOffset.x)),
+                -random.nextInt(0, Math.min(wallSize.h, config.wallMaxOffset.y)));
+            //endregion
+
+            //region RANDOMIZE DOOR
+            final Size roomFloorSpace = new Size(
+                roomLayout.columnWidth(roomIndex.x) + wallOffset.y,
+                roomLayout.rowHeight(roomIndex.y) + wallOffset.x);
+            final boolean needVerticalDoor =
+                !disableDoorRight
+                    && roomIndex.x > 0
+                    && roomIndex.x < rooms[0].length - 1;
+            final boolean needHorizontalDoor =
+                !disableDoorDown
+                    && roomIndex.y > 0
+                    && roomIndex.y < rooms.length - 1;
+            final Size doorSize = new Size(
+                needHorizontalDoor
+                    ? Math.min(config.doorMinMaxWidth.randomizeWidth(random), roomFloorSpace.w - 1)
+                    : 0,
+                needVerticalDoor
+                    ? Math.min(config.doorMinMaxWidth.randomizeHeight(random), roomFloorSpace.h - 1)
+                    : 0);
+            final Point doorOffset = new Point(
+                needHorizontalDoor
+                    ? random.nextInt(1, roomFloorSpace.w - doorSize.w + 1)
+                    : 0,
+                needVerticalDoor
+                    ? random.nextInt(1, roomFloorSpace.h - doorSize.h + 1)
+                    : 0);
+            //endregion
+
+            //region RANDOMIZE STYLE
+            final int styleIndex = random.nextInt(0, config.styleCount);
+            final Size styleSize = new Size(
+                roomIndex.x == config.roomsCount.x - 1 ? 1
+                    : config.styleSizeMinMaxSize.randomizeWidth(random),
+                roomIndex.y == config.roomsCount.y - 1 ? 1
+                    : config.styleSizeMinMaxSize.randomizeHeight(random));
+            //endregion
+
+            //region PUT ROOM INTO ROOMS ARRAY
+            rooms[roomIndex.y][roomIndex.x] = new Room(
+                roomPosAbs,
+                new Size(
+                    roomLayout.columnWidth(roomIndex.x),
+                    roomLayout.rowHeight(roomIndex.y)),
+                new Room.Rect(
+                    wallOffset.x,
+                    wallSize.w),
+                new Room.Rect(
+                    wallOffset.y,
+                    wallSize.h),
+                new Room.Rect(
+                    doorOffset.x,
+                    doorSize.w),
+                new Room.Rect(
+                    doorOffset.y,
+                    doorSize.h),
+                styleIndex,
+                styleSize,
+                disableRoom);
+            //endregion
         });
         //endregion
 
+        return rooms;
+    }
+
+    static TileGrid renderRooms(
+        final Configuration config,
+        final RoomStyle[] styles,
+        final Room[][] rooms,
+        final RoomLayout roomLayout
+    ) {
+        //region GENERATION: BASE MAP TILE ARRAY
+        final Size uncroppedMapSize = uncroppedMapSize(config, roomLayout);
+        final TileGrid mapTilesUncropped = new TileGrid(uncroppedMapSize.w, uncroppedMapSize.h);
+        //endregion
+
+        renderRooms(config, styles, rooms, 0, rooms.length, mapTilesUncropped);
+        return mapTilesUncropped;
+    }
+
+    /**
+     * Renders the rooms of the room rows [fromRoomY, toRoomY) onto the part of the uncropped map held by the grid,
+     * tiles outside of the grid are skipped.
+     */
+    static void renderRooms(
+        final Configuration config,
+        final RoomStyle[] styles,
+        final Room[][] rooms,
+        final int fromRoomY,
+        final int toRoomY,
+        final TileGrid mapTilesUncropped
+    ) {
+        //region GENERATION: RENDER BASE ROOMS ONTO BASE MAP TILE ARRAY
+        forEachPoint(0, fromRoomY, rooms[0].length, toRoomY - fromRoomY, (roomX, roomY) -> {
+            final Room room = rooms[roomY][roomX];
+
+            //region FILL MAP TILES
+            //region WALL HORIZONTAL
+            forEachPoint(
+                mapTilesUncropped,
+                room.roomPosAbs.x,
+                room.roomPosAbs.y + room.roomSize.h + room.wallHoriz.offset,
+                room.roomSize.w,
+                room.wallHoriz.width,
+                (x, y) -> {
+                    final boolean isDoorTile = (mapTilesUncropped.getTileType(x, y) == DOOR)
+                        || (x >= room.roomPosAbs.x + room.doorHoriz.offset
+                        && x < room.roomPosAbs.x + room.doorHoriz.offset + room.doorHoriz.width);
+                    mapTilesUncropped.setDisabled(x, y, !isDoorTile);
+                    mapTilesUncropped.setTileType(x, y,
+                        isDoorTile
+                            ? DOOR
+                            : WALL);
+                });
+            //endregion
+
+            //region WALL VERTICAL
+            forEachPoint(
+                mapTilesUncropped,
+                room.roomPosAbs.x + room.roomSize.w + room.wallVert.offset,
+                room.roomPosAbs.y,
+                room.wallVert.width,
+                room.roomSize.h,
+                (x, y) -> {
+                    final boolean isDoorTile = (mapTilesUncropped.getTileType(x, y) == DOOR)
+                        || (y >= room.roomPosAbs.y + room.doorVert.offset
+                        && y < room.roomPosAbs.y + room.doorVert.offset + room.doorVert.width);
+                    mapTilesUncropped.setDisabled(x, y, !isDoorTile);
+                    mapTilesUncropped.setTileType(x, y,
+                        isDoorTile
+                            ? DOOR
+                            : WALL);
+                });
+            //endregion
+
+            //region DISABLE FLOOR
+            if (room.isDisabled()) {
+                forEachPoint(
+                    mapTilesUncropped,
+                    room.roomPosAbs.x,
+                    room.roomPosAbs.y,
+                    room.roomSize.w + room.wallVert.offset,
+                    room.roomSize.h + room.wallHoriz.offset,
+                    (x, y) -> {
+                        final boolean isDoorTile = mapTilesUncropped.getTileType(x, y) == DOOR;
+                        mapTilesUncropped.setDisabled(x, y, !isDoorTile);
+                        mapTilesUncropped.setTileType(x, y,
+                            isDoorTile
+                                ? DOOR
+                                : WALL);
+                    });
+            }
+            //endregion
+
+            //region CARCASS HORIZONTAL
+            forEachPoint(
+                mapTilesUncropped,
+                room.roomPosAbs.x,
+                room.roomPosAbs.y + room.roomSize.h,
+                room.roomSize.w,
+                1,
+                (x, y) ->
+                    mapTilesUncropped.setCarcass(x, y, true));
+            //endregion
+
+            //region CARCASS VERTICAL
+            forEachPoint(
+                mapTilesUncropped,
+                room.roomPosAbs.x + room.roomSize.w,
+                room.roomPosAbs.y,
+                1,
+                room.roomSize.h,
+                (x, y) ->
+                    mapTilesUncropped.setCarcass(x, y, true));
+            //endregion
+
+            //region TILE ROOM TYPE
+            forEachPoint(
+                mapTilesUncropped,
+                room.roomPosAbs.x,
+                room.roomPosAbs.y,
+                room.roomSize.w + room.styleSize.w,
+                room.roomSize.h + room.styleSize.h,
+                (x, y) -> {
+                    if (mapTilesUncropped.getStyleIndex(x, y) == TileGrid.NO_STYLE) {
+                        mapTilesUncropped.setStyleIndex(x, y, room.styleIndex);
+                    }
+                    mapTilesUncropped.setHeight(x, y,
+                        styles[room.styleIndex].height
+                            + (mapTilesUncropped.isWall(x, y)
+                            ? config.wallHeight
+                            : 0));
+                });
+            //endregion
+            //endregion
+        });
+        //endregion
+    }
+
+    static Size uncroppedMapSize(final Configuration config, final RoomLayout roomLayout) {
+        return new Size(
+            roomLayout.width(roomLayout.diagonalLength())
+                + roomLayout.diagonalLength() * Math.max(config.styleSizeMinMaxSize.max.w, config.wallMaxOffset.x)
+                + 1,
+            roomLayout.height(roomLayout.diagonalLength())
+                + roomLayout.diagonalLength() * Math.max(config.styleSizeMinMaxSize.max.h, config.wallMaxOffset.y)
+                + 1);
+    }
+
+    /**
+     * @return position of the generated map in the uncropped map
+     */
+    static Point mapOrigin(final Configuration config, final RoomLayout roomLayout) {
+        return config.cropMap ? roomLayout.cropOffset() : new Point(0, 0);
+    }
+
+    /**
+     * @return size of the generated map, cropped or not
+     */
+    static Size mapSize(final Configuration config, final Room[][] rooms, final RoomLayout roomLayout) {
+        if (!config.cropMap) {
+            return uncroppedMapSize(config, roomLayout);
+        }
+        final Point cropOffset = roomLayout.cropOffset();
+        return new Size(
+            roomLayout.width(rooms[0].length) - cropOffset.x + 1,
+            roomLayout.height(rooms.length) - cropOffset.y + 1);
+    }
+
+    static TileGrid cropMap(
+        final Configuration config,
+        final TileGrid mapTilesUncropped,
+        final Room[][] rooms,
+        final RoomLayout roomLayout
+    ) {
+        //region GENERATION: CROP MAP
+        final TileGrid mapTilesCrop;
+        if (config.cropMap) {
+            final Point cropOffset = mapOrigin(config, roomLayout);
+            final Size croppedMapSize = mapSize(config, rooms, roomLayout);
+
+            mapTilesCrop = mapTilesUncropped.crop(
+                cropOffset.x,
+                cropOffset.y,
+                croppedMapSize.w,
+                croppedMapSize.h);
+        } else {
+            mapTilesCrop = mapTilesUncropped;
+        }
+        //endregion
+
+        //region GENERATION: FIX MOST DOWN RIGHT TILE
+        mapTilesCrop.copyTile(
+            mapTilesCrop.width - 2,
+            mapTilesCrop.height - 1,
+            mapTilesCrop.width - 1,
+            mapTilesCrop.height - 1);
+        //endregion
+
+        return mapTilesCrop;
+    }
+
+    static void fixDiagonalWalls(final Configuration config, final TileGrid mapTilesCrop) {
+        //region GENERATION: FIX DIAGONAL WALLS TOUCH WITH EMPTY SIDES
+        // #_    _#
+        // _# OR #_
+        DiagonalWallFix.fix(config, mapTilesCrop);
+        //endregion
+    }
+
+    static void addRoomEffectNodes(
+        final Configuration config,
+        final GenerationContext context,
+        final Room[][] rooms,
+        final TileGrid mapTilesCrop,
+        final Point cropOffset,
+        final NodeSink mapNodes
+    ) {
+        addRoomEffectNodes(config, context, rooms, 0, rooms.length, mapTilesCrop, mapTilesCrop.height, cropOffset, mapNodes);
+    }
+
+    /**
+     * Adds the effects of the rooms in the room rows [fromRoomY, toRoomY),
+     * the grid must hold the map rows of these rooms.
+     */
+    static void addRoomEffectNodes(
+        final Configuration config,
+        final GenerationContext context,
+        final Room[][] rooms,
+        final int fromRoomY,
+        final int toRoomY,
+        final TileGrid mapTilesCrop,
+        final int mapHeight,
+        final Point cropOffset,
+        final NodeSink mapNodes
+    ) {
         //region NODES: ROOM EFFECTS
-        pointsRectArray(rooms).forEach(point -> {
-            final Room room = rooms[point.y][point.x];
-            if (room.isDisabled() || point.x == 0 || point.y == 0) return;
+        mapPointsParallel(rooms[0].length, toRoomY - fromRoomY, (roomX, roomRow) -> {
+            final int roomY = fromRoomY + roomRow;
+            final List<Node.NodeBuilder> roomNodes = new ArrayList<>();
+            final Room room = rooms[roomY][roomX];
+            if (room.isDisabled() || roomX == 0 || roomY == 0) return roomNodes;
+            final GenerationRandom random = context.random(ROOM_EFFECTS, roomX, roomY);
             final Point roomEffectPosAbs;
             final int tryCountMax = 20;
             int tryCount = 0;
             while (true) {
                 final Point roomEffectPos = new Point(
-                    (room.roomPosAbs.x + nextInt(0, room.roomSize.w) - diagonalRoomSizes[0].w),
-                    (room.roomPosAbs.y + nextInt(0, room.roomSize.h) - diagonalRoomSizes[0].h));
-                if (roomEffectPos.x >= mapTilesCrop[0].length || roomEffectPos.y >= mapTilesCrop.length) {
+                    (room.roomPosAbs.x + random.nextInt(0, room.roomSize.w) - cropOffset.x),
+                    (room.roomPosAbs.y + random.nextInt(0, room.roomSize.h) - cropOffset.y));
+                if (roomEffectPos.x >= mapTilesCrop.width || roomEffectPos.y >= mapHeight) {
                     continue;
                 }
-                final MapTile mapTile = mapTilesCrop[roomEffectPos.y][roomEffectPos.x];
-                if (tryCount++ == tryCountMax || mapTile.tileType != WALL) {
+                if (tryCount++ == tryCountMax || !mapTilesCrop.isWall(roomEffectPos.x, roomEffectPos.y)) {
                     roomEffectPosAbs = roomEffectPos.mul(TILE_SIZE.toPoint());
                     break;
                 }
             }
-            final Color effectColor = config.roomLightMinMaxTint.randomize();
-            final float sizeMultiplier = config.roomEffectMinMaxSizeMultiplier.randomize();
+            final Color effectColor = config.roomLightMinMaxTint.randomize(random);
+            final float sizeMultiplier = config.roomEffectMinMaxSizeMultiplier.randomize(random);
             final float[] effectSize = {
                 room.roomSize.w * TILE_SIZE.w * sizeMultiplier,
                 room.roomSize.h * TILE_SIZE.h * sizeMultiplier
             };
-            mapJson.addNode(Node.builder()
+            roomNodes.add(Node.unnumberedBuilder()
                 .type(RESOURCE_ID_PREFIX + ROOM_NOISE_CIRCLE)
                 .pos(roomEffectPosAbs.floatArray())
                 .size(effectSize)
-                .rotation((float) nextInt(1, 359))
-                .color(effectColor.intArray())
-                .build());
-            mapJson.addNode(Node.builder()
+                .rotation((float) random.nextInt(1, 359))
+                .color(effectColor.intArray()));
+            roomNodes.add(Node.unnumberedBuilder()
                 .type(ExternalResource.WANDERING_PIXELS)
                 .pos(roomEffectPosAbs.floatArray())
                 .size(effectSize)
                 .num_particles(100)
-                .color(effectColor.intArray())
-                .build());
+                .color(effectColor.intArray()));
             if (tryCount < tryCountMax) {
-                mapJson.addNode(Node.builder()
+                roomNodes.add(Node.unnumberedBuilder()
                     .type(ExternalResource.POINT_LIGHT)
                     .pos(roomEffectPosAbs.floatArray())
                     .color(new Color(effectColor.r, effectColor.g, effectColor.b, 15).intArray())
-                    .positional_vibration(config.roomLightMinMaxVibration.randomize())
+                    .positional_vibration(config.roomLightMinMaxVibration.randomize(random))
                     .falloff(new Node.Falloff(
-                        config.roomLightMinMaxRadius.randomize(),
-                        nextInt(10, 20))
-                    ).build());
+                        config.roomLightMinMaxRadius.randomize(random),
+                        random.nextInt(10, 20))));
             }
-        });
+            return roomNodes;
+        }).forEach(mapNodes::addNodes);
         //endregion
+    }
+
+    static void addTileNodes(final Configuration config, final TileGrid mapTilesCrop, final NodeSink mapNodes) {
+        addTileNodes(config, mapTilesCrop, mapTilesCrop.originY, mapTilesCrop.endY(), mapNodes);
+    }
 
+    /**
+     * Adds the tiles of the rows [fromY, toY) of the grid.
+     */
+    static void addTileNodes(
+        final Configuration config,
+        final TileGrid mapTilesCrop,
+        final int fromY,
+        final int toY,
+        final NodeSink mapNodes
+    ) {
         //region NODES: MAP TILES
-        pointsRectArray(mapTilesCrop).forEach(mapTileIndex -> {
-            final MapTile tile = mapTilesCrop[mapTileIndex.y][mapTileIndex.x];
+        TileMesher.forEachRectangle(mapTilesCrop, fromY, toY, config.mergeTileNodes, (x, y, w, h) -> {
+            final boolean isWall = mapTilesCrop.isWall(x, y);
+            final int styleIndex = mapTilesCrop.getStyleIndex(x, y);
 
             final String tileResourceId;
-            if (tile.tileType == WALL) {
+            if (isWall) {
                 tileResourceId = RESOURCE_WALL_ID;
             } else {
                 tileResourceId = RESOURCE_FLOOR_ID;
             }
 
             // PATTERN
-            mapJson.addTileNode(
-                "style" + tile.styleIndex + "_pattern_"
-                    + (tile.tileType == WALL
+            mapNodes.addTileRectangleNode(
+                "style" + styleIndex + "_pattern_"
+                    + (isWall
                     ? "wall"
                     : "floor"),
-                mapTileIndex.x,
-                mapTileIndex.y,
-                0);
+                x,
+                y,
+                w,
+                h);
 
             // BASE
-            mapJson.addTileNode(
-                tileResourceId + tile.styleIndex,
-                mapTileIndex.x,
-                mapTileIndex.y,
-                0);
+            mapNodes.addTileRectangleNode(
+                tileResourceId + styleIndex,
+                x,
+                y,
+                w,
+                h);
         });
         //endregion
-
-        //region NODES: CRATES
-        pointsRectArray(rooms)
-            .forEach(roomIndex -> {
-                final Room room = rooms[roomIndex.y][roomIndex.x];
-                if (roomIndex.x == 0 || roomIndex.y == 0) return;
-                final Room roomLeft = rooms[roomIndex.y][roomIndex.x - 1];
-                final Room roomUp = rooms[roomIndex.y - 1][roomIndex.x];
-                final int roomLeftOffset = roomLeft.wallVert.offset + roomLeft.wallVert.width;
-                final int roomUpOffset = roomUp.wallHoriz.offset + roomUp.wallHoriz.width;
-                final Point startingRoomSpace = new Point(
-                    room.roomSize.w + room.wallVert.offset - roomLeftOffset,
-                    room.roomSize.h + room.wallHoriz.offset - roomUpOffset);
-                final Size minSpaceLeft = config.cratesMinMaxSpaceLeftPerRoom.randomize();
-
-                Point currentSpaceLeft = startingRoomSpace;
-                while (currentSpaceLeft.x >= minSpaceLeft.w
-                    && currentSpaceLeft.y >= minSpaceLeft.h
-                ) {
-                    final boolean blocking = nextInt(0, 100) < config.crateBlockingChance;
-                    currentSpaceLeft = currentSpaceLeft.add(new Point(-1, -1));
-                    mapJson.addNode(Node.builder()
-                        .size(null)
-                        .type(RESOURCE_ID_PREFIX
-                            + getCrateName.apply(
-                            room.styleIndex,
-                            nextInt(0, blocking ? config.cratesBlockingPerStyle : config.cratesNonBlockingPerStyle),
-                            blocking)
-                        ).rotation((float) nextInt(1, 359))
-                        .pos(new Point(
-                                (roomLeftOffset - diagonalRoomSizes[0].w + room.roomPosAbs.x + nextInt(0, startingRoomSpace.x))
-                                    * TILE_SIZE.w
-                                    + nextInt(-TILE_SIZE.w / 2, TILE_SIZE.w / 2),
-                                (roomUpOffset - diagonalRoomSizes[0].h + room.roomPosAbs.y + nextInt(0, startingRoomSpace.y))
-                                    * TILE_SIZE.h
-                                    + nextInt(-TILE_SIZE.h / 2, TILE_SIZE.h / 2)
-                            ).floatArray()
-                        ).build());
-                }
-            });
-        //endregion
-
-        //region NODES: SPAWNS/BOMB SITES
-        final Room spawnTRoom = rooms[rooms.length / 2 - 1][0];
-        final Room spawnCTRoom = rooms[rooms.length / 2 - 1][rooms[0].length - 2];
-        final Room siteARoom = rooms[0][rooms[0].length - 3];
-        final Room siteBRoom = rooms[rooms.length - 2][rooms[0].length - 3];
-        mapJson.addBombSiteA(
-            siteARoom.roomPosAbs.x + siteARoom.roomSize.w / 2,
-            siteARoom.roomPosAbs.y + siteARoom.roomSize.h / 2,
-            siteARoom.roomSize.w,
-            siteARoom.roomSize.h);
-        mapJson.addBombSiteB(
-            siteBRoom.roomPosAbs.x + siteBRoom.roomSize.w / 2,
-            siteBRoom.roomPosAbs.y + siteBRoom.roomSize.h / 2,
-            siteBRoom.roomSize.w,
-            siteBRoom.roomSize.h);
-        mapJson.addSpawnT(
-            spawnTRoom.roomPosAbs.x + spawnTRoom.roomSize.w / 2,
-            spawnTRoom.roomPosAbs.y + spawnTRoom.roomSize.h / 2,
-            spawnTRoom.roomSize.w,
-            spawnTRoom.roomSize.h);
-        mapJson.addSpawnCT(
-            spawnCTRoom.roomPosAbs.x + spawnCTRoom.roomSize.w / 2,
-            spawnCTRoom.roomPosAbs.y + spawnCTRoom.roomSize.h / 2,
-            spawnCTRoom.roomSize.w,
-            spawnCTRoom.roomSize.h);
-        //endregion
-
-        //region WRITE JSON FILE
-        final String mapJsonString = OBJECT_MAPPER.writeValueAsString(mapJson);
-        final Path mapJsonFilePath = mapDirectory.resolve(config.mapName + ".json");
-        System.out.println("Writing to " + mapJsonFilePath);
-        Files.write(mapJsonFilePath, mapJsonString.getBytes());
-        Files.write(Path.of("config_"
-                + config.mapName
-                + "_"
-                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("ddMMyy_HHmmss"))
-                + ".json"),
-            configStr.getBytes());
-        //endregion
-        //endregion
     }
 
-    @ToString
-    @Getter
-    @AllArgsConstructor
-    public static final class MapTile {
-        TileType tileType;
-        Integer styleIndex;
-        boolean carcass;
-        boolean disabled;
-        Integer height;
-
-        public static final MapTile VIRTUAL_TILE = new MapTile(
-            WALL,
-            0,
-            false,
-            false,
-            0);
-
-        public enum TileType {
-            FLOOR,
-            WALL,
-            DOOR
-        }
+    static void addCrateNodes(
+        final Configuration config,
+        final GenerationContext context,
+        final Room[][] rooms,
+        final Point cropOffset,
+        final NodeSink mapNodes
+    ) {
+        addCrateNodes(config, context, rooms, 0, rooms.length, cropOffset, mapNodes);
     }
 
-    public static int nextInt(int from, int to) {
-        try {
-            return config.randomEnabled
-                ? baseRandom.nextInt(from, to)
-                : (int) Math.floor((double) (from + to) / 2);
-        } catch (Exception e) {
-            throw new RuntimeException("#nextInt " + from + " to " + to, e);
-        }
+    /**
+     * Adds the crates of the rooms in the room rows [fromRoomY, toRoomY).
+     */
+    static void addCrateNodes(
+        final Configuration config,
+        final GenerationContext context,
+        final Room[][] rooms,
+        final int fromRoomY,
+        final int toRoomY,
+        final Point cropOffset,
+        final NodeSink mapNodes
+    ) {
+        //region NODES: CRATES
+        mapPointsParallel(rooms[0].length, toRoomY - fromRoomY, (roomX, roomRow) -> {
+            final int roomY = fromRoomY + roomRow;
+            final List<Node.NodeBuilder> roomNodes = new ArrayList<>();
+            final Room room = rooms[roomY][roomX];
+            if (roomX == 0 || roomY == 0) return roomNodes;
+            final GenerationRandom random = context.random(CRATES, roomX, roomY);
+            final Room roomLeft = rooms[roomY][roomX - 1];
+            final Room roomUp = rooms[roomY - 1][roomX];
+            final int roomLeftOffset = roomLeft.wallVert.offset + roomLeft.wallVert.width;
+            final int roomUpOffset = roomUp.wallHoriz.offset + roomUp.wallHoriz.width;
+            final Point startingRoomSpace = new Point(
+                room.roomSize.w + room.wallVert.offset - roomLeftOffset,
+                room.roomSize.h + room.wallHoriz.offset - roomUpOffset);
+            final Size minSpaceLeft = config.cratesMinMaxSpaceLeftPerRoom.randomize(random);
+
+            Point currentSpaceLeft = startingRoomSpace;
+            while (currentSpaceLeft.x >= minSpaceLeft.w
+                && currentSpaceLeft.y >= minSpaceLeft.h
+            ) {
+                final boolean blocking = random.nextInt(0, 100) < config.crateBlockingChance;
+                currentSpaceLeft = currentSpaceLeft.add(new Point(-1, -1));
+                roomNodes.add(Node.unnumberedBuilder()
+                    .size(null)
+                    .type(RESOURCE_ID_PREFIX
+                        + crateName(
+                        room.styleIndex,
+                        random.nextInt(0, blocking ? config.cratesBlockingPerStyle : config.cratesNonBlockingPerStyle),
+                        blocking)
+                    ).rotation((float) random.nextInt(1, 359))
+                    .pos(new Point(
+                            (roomLeftOffset - cropOffset.x + room.roomPosAbs.x + random.nextInt(0, startingRoomSpace.x))
+                                * TILE_SIZE.w
+                                + random.nextInt(-TILE_SIZE.w / 2, TILE_SIZE.w / 2),
+                            (roomUpOffset - cropOffset.y + room.roomPosAbs.y + random.nextInt(0, startingRoomSpace.y))
+                                * TILE_SIZE.h
+                                + random.nextInt(-TILE_SIZE.h / 2, TILE_SIZE.h / 2)
+                        ).floatArray()
+                    ));
+            }
+            return roomNodes;
+        }).forEach(mapNodes::addNodes);
+        //endregion
     }
 
-    public static float nextFloat(float from, float to) {
-        try {
-            return config.randomEnabled
-                ? baseRandom.nextFloat(from, to)
-                : (int) Math.floor((double) (from + to) / 2);
-        } catch (Exception e) {
-            throw new RuntimeException("#nextFloat " + from + " to " + to, e);
-        }
+    static String crateName(final int roomStyleIndex, final int crateStyleIndex, final boolean isBlocking) {
+        return "style"
+            + roomStyleIndex
+            + "_crate"
+            + crateStyleIndex
+            + "_"
+            + (isBlocking ? "" : "non")
+            + "blocking";
     }
 
-    public static List<Point> pointsRectArray(Object[][] array) {
-        return pointsRect(0, 0, array[0].length, array.length);
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(int x, int y);
     }
 
-    public static List<List<Point>> pointsRectArrayByRow(Object[][] array) {
-        return pointsRectRows(array[0].length, array.length);
+    @FunctionalInterface
+    public interface PointFunction<T> {
+        T apply(int x, int y);
     }
 
-    public static List<Point> pointsRect(int startX, int startY, int w, int h) {
-        List<Point> points = new ArrayList<>();
+    public static void forEachPoint(int startX, int startY, int w, int h, PointConsumer consumer) {
         for (int iterY = startY; iterY < startY + h; iterY++) {
             for (int iterX = startX; iterX < startX + w; iterX++) {
-                points.add(new Point(iterX, iterY));
+                consumer.accept(iterX, iterY);
             }
         }
-        return points;
     }
 
-    public static List<List<Point>> pointsRectRows(int w, int h) {
-        List<List<Point>> points = new ArrayList<>();
-        for (int iterY = 0; iterY < h; iterY++) {
-            ArrayList<Point> points1 = new ArrayList<>();
-            points.add(points1);
-            for (int iterX = 0; iterX < w; iterX++) {
-                points1.add(new Point(iterX, iterY));
+    /**
+     * Same as {@link #forEachPoint(int, int, int, int, PointConsumer)}, skipping the points outside of the grid.
+     */
+    public static void forEachPoint(TileGrid grid, int startX, int startY, int w, int h, PointConsumer consumer) {
+        final int fromX = Math.max(startX, grid.originX);
+        final int fromY = Math.max(startY, grid.originY);
+        forEachPoint(
+            fromX,
+            fromY,
+            Math.min(startX + w, grid.endX()) - fromX,
+            Math.min(startY + h, grid.endY()) - fromY,
+            consumer);
+    }
+
+    /**
+     * Same as {@link #forEachPoint}, but rows are visited in parallel.
+     * The consumer must only write to state owned by the visited point.
+     */
+    public static void forEachPointParallel(int startX, int startY, int w, int h, PointConsumer consumer) {
+        IntStream.range(startY, startY + h).parallel().forEach(iterY -> {
+            for (int iterX = startX; iterX < startX + w; iterX++) {
+                consumer.accept(iterX, iterY);
             }
-        }
-        return points;
+        });
     }
 
-    public static String[] splitJsonEntry(JsonParser jsonParser) {
-        try {
-            return jsonParser.getCodec().<JsonNode>readTree(jsonParser).asText().split(",");
-        } catch (Exception e) {
-            throw new RuntimeException("#split: " + jsonParser, e);
-        }
+    /**
+     * Maps every point of a w*h rectangle in parallel.
+     *
+     * @return results in row-major order
+     */
+    public static <T> List<T> mapPointsParallel(int w, int h, PointFunction<T> function) {
+        return IntStream.range(0, w * h)
+            .parallel()
+            .mapToObj(index -> function.apply(index % w, index / w))
+            .toList();
     }
 
 
@@ -1012,6 +1194,19 @@ public class Main {
         MinMaxColor patternMinMaxTintFloor;
         MinMaxColor patternMinMaxTintWall;
         String outputTextFilePath;
+        TextMapWriter.Format outputTextFormat = TextMapWriter.Format.TEXT;
+        boolean streamJsonOutput;
+        boolean collapseShadowNodes;
+        boolean mergeTileNodes;
+        int chunkRoomRows;
+        String hashCacheFilePath;
+        boolean deployTexturesAsHardLinks;
+        String phaseCacheDirectoryPath;
+        String phaseReportFilePath;
+        boolean printPhaseReport;
+        String previewFilePath;
+        String snapshotFilePath;
+        int previewTilePixels;
         String gameVersion;
         int crateBlockingChance;
         MinMaxSize cratesMinMaxSpaceLeftPerRoom;
@@ -1021,30 +1216,16 @@ public class Main {
         int cratesNonBlockingPerStyle;
         int cratesBlockingPerStyle;
         MinMaxFloat roomEffectMinMaxSizeMultiplier;
-        Point[] roomsDisabled;
-        Point[] roomsDoorDownDisabled;
-        Point[] roomsDoorRightDisabled;
-    }
-
-    @Value
-    public static class ShadowCalcTileInfo {
-        Entry left;
-        Entry up;
-        Entry right;
-        Entry down;
-        Entry upLeft;
-        Entry upRight;
-        Entry downLeft;
-        Entry downRight;
-
-        @Value
-        public static class Entry {
-            int hDif;
-            boolean isWall;
-            boolean sameStyle;
-            boolean needLine;
-            boolean higher;
-            Point offset;
+        RoomMask.Area[] roomsDisabled;
+        RoomMask.Area[] roomsDoorDownDisabled;
+        RoomMask.Area[] roomsDoorRightDisabled;
+
+        public void setStyleCount(final int styleCount) {
+            if (styleCount < 1 || styleCount > TileGrid.MAX_STYLE_COUNT) {
+                throw new RuntimeException("#setStyleCount: styleCount must be between 1 and "
+                    + TileGrid.MAX_STYLE_COUNT + ", got " + styleCount);
+            }
+            this.styleCount = styleCount;
         }
     }
 
@@ -1054,8 +1235,8 @@ public class Main {
         int min;
         int max;
 
-        public float randomize() {
-            return nextInt(min, max);
+        public float randomize(GenerationRandom random) {
+            return random.nextInt(min, max);
         }
 
         public static class MinMaxIntegerDeserializer extends StdDeserializer<MinMaxInteger> {
@@ -1068,8 +1249,8 @@ public class Main {
                 final JsonParser jsonParser,
                 final DeserializationContext deserializationContext
             ) throws IOException, JacksonException {
-                final String[] string = splitJsonEntry(jsonParser);
-                return new MinMaxInteger(Integer.parseInt(string[0]), Integer.parseInt(string[1]));
+                final int[] values = ConfigEntryReader.readInts(jsonParser, 2);
+                return new MinMaxInteger(values[0], values[1]);
             }
         }
     }
@@ -1081,8 +1262,8 @@ public class Main {
         float min;
         float max;
 
-        public float randomize() {
-            return nextFloat(min, max);
+        public float randomize(GenerationRandom random) {
+            return random.nextFloat(min, max);
         }
 
         public static class MinMaxFloatDeserializer extends StdDeserializer<MinMaxFloat> {
@@ -1095,8 +1276,8 @@ public class Main {
                 final JsonParser jsonParser,
                 final DeserializationContext deserializationContext
             ) throws IOException, JacksonException {
-                final String[] string = splitJsonEntry(jsonParser);
-                return new MinMaxFloat(Float.parseFloat(string[0]), Float.parseFloat(string[1]));
+                final float[] values = ConfigEntryReader.readFloats(jsonParser, 2);
+                return new MinMaxFloat(values[0], values[1]);
             }
         }
     }
@@ -1150,8 +1331,8 @@ public class Main {
                 final JsonParser jsonParser,
                 final DeserializationContext deserializationContext
             ) throws IOException, JacksonException {
-                final String[] string = splitJsonEntry(jsonParser);
-                return new Point(Integer.parseInt(string[0]), Integer.parseInt(string[1]));
+                final int[] values = ConfigEntryReader.readInts(jsonParser, 2);
+                return new Point(values[0], values[1]);
             }
         }
     }
@@ -1184,10 +1365,8 @@ public class Main {
                 final JsonParser jsonParser,
                 final DeserializationContext deserializationContext
             ) throws IOException, JacksonException {
-                final String[] string = splitJsonEntry(jsonParser);
-                return new Size(
-                    Integer.parseInt(string[0]),
-                    Integer.parseInt(string[1]));
+                final int[] values = ConfigEntryReader.readInts(jsonParser, 2);
+                return new Size(values[0], values[1]);
             }
         }
     }
@@ -1231,12 +1410,8 @@ public class Main {
                 final JsonParser jsonParser,
                 final DeserializationContext deserializationContext
             ) throws IOException, JacksonException {
-                final String[] string = splitJsonEntry(jsonParser);
-                return new Color(
-                    Integer.parseInt(string[0]),
-                    Integer.parseInt(string[1]),
-                    Integer.parseInt(string[2]),
-                    Integer.parseInt(string[3]));
+                final int[] values = ConfigEntryReader.readInts(jsonParser, 4);
+                return new Color(values[0], values[1], values[2], values[3]);
             }
         }
     }
@@ -1247,18 +1422,18 @@ public class Main {
         Size min;
         Size max;
 
-        public Size randomize() {
+        public Size randomize(GenerationRandom random) {
             return new Size(
-                nextInt(min.w, max.w),
-                nextInt(min.h, max.h));
+                random.nextInt(min.w, max.w),
+                random.nextInt(min.h, max.h));
         }
 
-        public int randomizeWidth() {
-            return nextInt(min.w, max.w);
+        public int randomizeWidth(GenerationRandom random) {
+            return random.nextInt(min.w, max.w);
         }
 
-        public int randomizeHeight() {
-            return nextInt(min.h, max.h);
+        public int randomizeHeight(GenerationRandom random) {
+            return random.nextInt(min.h, max.h);
         }
 
         public static class MinMaxSizeDeserializer extends StdDeserializer<MinMaxSize> {
@@ -1271,10 +1446,10 @@ public class Main {
                 final JsonParser jsonParser,
                 final DeserializationContext deserializationContext
             ) throws IOException, JacksonException {
-                final String[] string = splitJsonEntry(jsonParser);
+                final int[] values = ConfigEntryReader.readInts(jsonParser, 4);
                 return new MinMaxSize(
-                    new Size(Integer.parseInt(string[0]), Integer.parseInt(string[1])),
-                    new Size(Integer.parseInt(string[2]) + 1, Integer.parseInt(string[3]) + 1));
+                    new Size(values[0], values[1]),
+                    new Size(values[2] + 1, values[3] + 1));
             }
         }
     }
@@ -1285,12 +1460,12 @@ public class Main {
         Color min;
         Color max;
 
-        public Color randomize() {
+        public Color randomize(GenerationRandom random) {
             return new Color(
-                nextInt(min.r, max.r),
-                nextInt(min.g, max.g),
-                nextInt(min.b, max.b),
-                nextInt(min.a, max.a));
+                random.nextInt(min.r, max.r),
+                random.nextInt(min.g, max.g),
+                random.nextInt(min.b, max.b),
+                random.nextInt(min.a, max.a));
         }
 
         public static class MinMaxColorDeserializer extends StdDeserializer<MinMaxColor> {
@@ -1303,18 +1478,10 @@ public class Main {
                 final JsonParser jsonParser,
                 final DeserializationContext deserializationContext
             ) throws IOException, JacksonException {
-                final String[] string = splitJsonEntry(jsonParser);
+                final int[] values = ConfigEntryReader.readInts(jsonParser, 8);
                 return new MinMaxColor(
-                    new Color(
-                        Integer.parseInt(string[0]),
-                        Integer.parseInt(string[1]),
-                        Integer.parseInt(string[2]),
-                        Integer.parseInt(string[3])),
-                    new Color(
-                        Integer.parseInt(string[4]) + 1,
-                        Integer.parseInt(string[5]) + 1,
-                        Integer.parseInt(string[6]) + 1,
-                        Integer.parseInt(string[7]) + 1));
+                    new Color(values[0], values[1], values[2], values[3]),
+                    new Color(values[4] + 1, values[5] + 1, values[6] + 1, values[7] + 1));
             }
         }
     }
@@ -1347,32 +1514,59 @@ public class Main {
         }
     }
 
+    /**
+     * Result of {@link #generateGeometry}, the part of a generation kept by {@link PhaseCache}.
+     */
     @Value
-    public static class Map {
-        Meta meta;
-        About about;
-        Settings settings;
-        Playtesting playtesting;
-        List<ExternalResource> external_resources;
-        List<Layer> layers;
-        List<Node> nodes;
-        public static AtomicInteger nodeIndex = new AtomicInteger(0);
+    public static class Geometry {
+        Size[] diagonalRoomSizes;
+        Room[][] rooms;
+        TileGrid tiles;
+        ShadowEngine shadows;
+    }
 
-        public void addNode(Node node) {
-            nodes.add(node);
-            layers.get(layers.size() - 1).nodes.add(node.id);
+    /**
+     * Receives the nodes of a map as the generation phases produce them.
+     */
+    public interface NodeSink {
+        GenerationContext getContext();
+
+        void addNode(Node node);
+
+        /**
+         * Adds nodes built by phases that run in parallel, numbering them in list order.
+         */
+        default void addNodes(List<Node.NodeBuilder> builders) {
+            builders.forEach(builder -> addNode(builder.id(getContext().nextNodeId()).build()));
+        }
+
+        default void addTileNode(String type, int x, int y, int rot) {
+            addTileNode(type, x, y, rot, null);
         }
 
-        public void addTileNode(String type, int x, int y, int rot) {
-            addNode(Node.builder()
+        default void addTileNode(String type, int x, int y, int rot, int[] color) {
+            addNode(Node.builder(getContext())
                 .type(RESOURCE_ID_PREFIX + type)
                 .pos(new Point(x * 128, y * 128).floatArray())
                 .rotation((float) rot)
+                .color(color)
+                .build());
+        }
+
+        /**
+         * Adds a node covering w by h tiles, textures of non-stretched resources are tiled over it.
+         */
+        default void addTileRectangleNode(String type, int x, int y, int w, int h) {
+            addNode(Node.builder(getContext())
+                .type(RESOURCE_ID_PREFIX + type)
+                .pos(new Point(x * 128 + (w - 1) * 64, y * 128 + (h - 1) * 64).floatArray())
+                .size(new Size(w * 128, h * 128).floatArray())
+                .rotation(0.0f)
                 .build());
         }
 
-        public void addAreaNode(String type, String letter, String faction, int x, int y, int w, int h) {
-            addNode(Node.builder()
+        default void addAreaNode(String type, String letter, String faction, int x, int y, int w, int h) {
+            addNode(Node.builder(getContext())
                 .type(type)
                 .pos(new Point(x * 128 + 64, y * 128 + 64).floatArray())
                 .size(new Size(w * 128, h * 128).floatArray())
@@ -1381,51 +1575,44 @@ public class Main {
                 .build());
         }
 
-        public void addBlackLine(Point point, int rot, boolean isWall) {
-            addTileNode(isWall
-                ? LINE_WALL
-                : LINE_FLOOR, point.x, point.y, rot);
-        }
-
-        public void addShadowCorner(
-            Point point,
-            int rot,
-            int height,
-            boolean thisIsWall,
-            boolean thatIsWall
-        ) {
-            IntStream.range(0, height).forEach((i) ->
-                addTileNode(thisIsWall || thatIsWall
-                    ? SHADOW_WALL_CORNER
-                    : SHADOW_FLOOR_CORNER, point.x, point.y, rot));
-        }
-
-        public void addShadowLine(Point point, int rot, int height, boolean thisIsWall, boolean thatIsWall) {
-            IntStream.range(0, Math.max(0, height)).forEach((i) ->
-                addTileNode(thisIsWall || thatIsWall
-                    ? SHADOW_WALL_LINE
-                    : SHADOW_FLOOR_LINE, point.x, point.y, rot));
-        }
-
-        public void addBombSiteA(int x, int y, int w, int h) {
+        default void addBombSiteA(int x, int y, int w, int h) {
             addAreaNode(Node.TYPE_BOMBSITE, Node.LETTER_A, null, x, y, w, h);
         }
 
-        public void addBombSiteB(int x, int y, int w, int h) {
+        default void addBombSiteB(int x, int y, int w, int h) {
             addAreaNode(Node.TYPE_BOMBSITE, Node.LETTER_B, null, x, y, w, h);
         }
 
-        public void addSpawnT(int x, int y, int w, int h) {
+        default void addSpawnT(int x, int y, int w, int h) {
             addAreaNode(Node.TYPE_TEAM_SPAWN, null, Node.FACTION_RESISTANCE, x, y, w, h);
             addAreaNode(Node.TYPE_BUY_ZONE, null, Node.FACTION_RESISTANCE, x, y, w, h);
         }
 
-        public void addSpawnCT(int x, int y, int w, int h) {
+        default void addSpawnCT(int x, int y, int w, int h) {
             addAreaNode(Node.TYPE_TEAM_SPAWN, null, Node.FACTION_METROPOLIS, x, y, w, h);
             addAreaNode(Node.TYPE_BUY_ZONE, null, Node.FACTION_METROPOLIS, x, y, w, h);
         }
     }
 
+    @Value
+    public static class Map implements NodeSink {
+        Meta meta;
+        About about;
+        Settings settings;
+        Playtesting playtesting;
+        List<ExternalResource> external_resources;
+        List<Layer> layers;
+        List<Node> nodes;
+        @JsonIgnore
+        GenerationContext context;
+
+        @Override
+        public void addNode(Node node) {
+            nodes.add(node);
+            layers.get(layers.size() - 1).nodes.add(node.id);
+        }
+    }
+
     @Value
     public static class Meta {
         String game_version;
@@ -1458,8 +1645,7 @@ public class Main {
         @Value
         @Builder
         public static class Node {
-            @Builder.Default
-            String id = String.valueOf(Map.nodeIndex.getAndIncrement());
+            String id;
             String type;
             float[] pos;
             @Builder.Default
@@ -1482,6 +1668,15 @@ public class Main {
             static final String TYPE_TEAM_SPAWN = "team_spawn";
             static final String LETTER_B = "B";
 
+            public static NodeBuilder builder(GenerationContext context) {
+                return new NodeBuilder().id(context.nextNodeId());
+            }
+
+            // id is assigned by NodeSink#addNodes from the GenerationContext counter
+            public static NodeBuilder unnumberedBuilder() {
+                return new NodeBuilder();
+            }
+
             @Value
             public static class Falloff {
                 float radius;
@@ -1493,8 +1688,7 @@ public class Main {
             public static class ExternalResource {
                 public static final String BASE_PNG_TEXTURE_FILENAME = "base";
                 String path;
-                @Builder.Default
-                String file_hash = "03364891a7e8a89057d550d2816c8756c98e951524c4a14fa7e00981e0a46a62";
+                String file_hash;
                 String id;
                 String domain;
                 @Builder.Default
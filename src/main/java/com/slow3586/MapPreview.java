@@ -0,0 +1,322 @@
+package com.slow3586;
+
+import com.slow3586.Main.Color;
+import com.slow3586.Main.Configuration;
+import com.slow3586.Main.NodeSink;
+import com.slow3586.Main.Room.RoomStyle;
+import com.slow3586.Main.Settings.Node;
+import lombok.AllArgsConstructor;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.BasicStroke;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static com.slow3586.Main.Size.CRATE_SIZE;
+import static com.slow3586.Main.Size.TILE_SIZE;
+import static com.slow3586.TileGrid.TileType.DOOR;
+
+/**
+ * Headless PNG preview of a map, for reviewing many seeds without opening the editor.
+ * <p>
+ * Every tile is a square of {@code previewTilePixels} pixels in the floor or wall color of its style,
+ * doors lightened. Tiles without a style, e.g. around the rooms of an uncropped map, are drawn in
+ * {@link #NO_STYLE_COLOR}. Shadows are blended along the side or into the corner they are cast on, black lines
+ * are drawn as one pixel lines once tiles are big enough. Tiles and shadows are rasterized in parallel
+ * by rows straight into the pixel array of the image, and may be given in row windows as in chunked
+ * generation. Crates, spawns and bomb sites are taken from the nodes passing through {@link #capture}
+ * and drawn on top when the image is written; only their kind, position, size, rotation and letter are
+ * kept, in primitive arrays, as tiles of later chunks may still be rendered under them.
+ */
+public final class MapPreview {
+    static final int NO_STYLE_COLOR = 0x202020;
+    private static final int DOOR_COLOR = 0xFFFFFF;
+    private static final int DOOR_ALPHA = 110;
+    private static final java.awt.Color CRATE_BLOCKING_COLOR = new java.awt.Color(0x6B4423);
+    private static final java.awt.Color CRATE_NON_BLOCKING_COLOR = new java.awt.Color(0xC8A165);
+    private static final java.awt.Color RESISTANCE_COLOR = new java.awt.Color(0xE04040);
+    private static final java.awt.Color METROPOLIS_COLOR = new java.awt.Color(0x4070E0);
+    private static final java.awt.Color BOMBSITE_COLOR = new java.awt.Color(0xFFA020);
+    // deflate level 1, (1 - quality) * 9 in the JDK writer
+    private static final float PNG_COMPRESSION_QUALITY = 0.85f;
+    // x, y, w, h and rotation of a marker
+    private static final int MARKER_FLOATS = 5;
+    private static final Marker[] MARKERS = Marker.values();
+
+    static {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    final Configuration config;
+    final RoomStyle[] styles;
+    final int tilePixels;
+    final int imageWidth;
+    final BufferedImage image;
+    final int[] pixels;
+    byte[] markerKinds = new byte[64];
+    // letters are single characters, 0 if none
+    char[] markerLetters = new char[64];
+    float[] markerValues = new float[64 * MARKER_FLOATS];
+    int markerCount;
+
+    private enum Marker {
+        CRATE_BLOCKING,
+        CRATE_NON_BLOCKING,
+        BOMBSITE,
+        RESISTANCE_SPAWN,
+        METROPOLIS_SPAWN
+    }
+
+    public MapPreview(final Configuration config, final RoomStyle[] styles, final int mapWidth, final int mapHeight) {
+        this.config = config;
+        this.styles = styles;
+        this.tilePixels = Math.max(1, config.previewTilePixels);
+        final long width = (long) mapWidth * tilePixels;
+        final long height = (long) mapHeight * tilePixels;
+        if (width * height > Integer.MAX_VALUE - 8) {
+            throw new RuntimeException("#MapPreview: preview of " + width + "x" + height
+                + " pixels is too large, lower previewTilePixels");
+        }
+        this.imageWidth = (int) width;
+        this.image = new BufferedImage(imageWidth, (int) height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Rasterizes the tiles of the rows [fromY, toY) of the grid.
+     */
+    public void renderTiles(final TileGrid grid, final int fromY, final int toY) {
+        IntStream.range(fromY, toY).parallel().forEach(y -> {
+            for (int x = grid.originX; x < grid.endX(); x++) {
+                final int styleIndex = grid.getStyleIndex(x, y);
+                int rgb = styleIndex == TileGrid.NO_STYLE
+                    ? NO_STYLE_COLOR
+                    : rgb(grid.isWall(x, y) ? styles[styleIndex].getWallColor() : styles[styleIndex].getFloorColor());
+                if (grid.getTileType(x, y) == DOOR) {
+                    rgb = blend(rgb, DOOR_COLOR, DOOR_ALPHA);
+                }
+                for (int pixelY = y * tilePixels; pixelY < (y + 1) * tilePixels; pixelY++) {
+                    final int from = pixelY * imageWidth + x * tilePixels;
+                    Arrays.fill(pixels, from, from + tilePixels, rgb);
+                }
+            }
+        });
+    }
+
+    /**
+     * Blends the computed shadows and black lines over the rendered tiles.
+     */
+    public void renderShadows(final ShadowEngine shadows) {
+        final int band = Math.max(1, tilePixels / 2);
+        final boolean blackLines = tilePixels >= 4;
+        IntStream.range(0, shadows.height).parallel().forEach(row -> {
+            final int y0 = (shadows.originY + row) * tilePixels;
+            shadows.forEachRecord(row, (x, type, side, nodeCount) -> {
+                final int x0 = x * tilePixels;
+                if (!type.shadow) {
+                    if (blackLines) {
+                        final Color tint = type.wall ? config.blackLineWallTint : config.blackLineFloorTint;
+                        blendSide(x0, y0, side, 1, rgb(tint), tint.getA());
+                    }
+                    return;
+                }
+                final Color tint = type.wall ? config.shadowTintWall : config.shadowTintFloor;
+                final int alpha = ShadowEngine.stackedAlpha(tint.getA(), nodeCount);
+                if (type == ShadowEngine.Type.WALL_CORNER || type == ShadowEngine.Type.FLOOR_CORNER) {
+                    // down-left, up-left, up-right, down-right
+                    final boolean right = side == 2 || side == 3;
+                    final boolean down = side == 0 || side == 3;
+                    blendRectangle(
+                        right ? x0 + tilePixels - band : x0,
+                        down ? y0 + tilePixels - band : y0,
+                        band,
+                        band,
+                        rgb(tint),
+                        alpha);
+                } else {
+                    blendSide(x0, y0, side, band, rgb(tint), alpha);
+                }
+            });
+        });
+    }
+
+    /**
+     * @return sink keeping the crates, spawns and bomb sites passed on to the given sink
+     */
+    public NodeSink capture(final NodeSink sink) {
+        return new CapturingNodeSink(sink);
+    }
+
+    /**
+     * Draws the captured nodes and writes the image as PNG.
+     */
+    public void write(final Path path) throws IOException {
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setFont(graphics.getFont().deriveFont(Font.BOLD, Math.max(10f, tilePixels * 3f)));
+            graphics.setStroke(new BasicStroke(Math.max(1f, tilePixels / 4f)));
+            for (int i = 0; i < markerCount; i++) {
+                drawMarker(graphics, i);
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        final ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(PNG_COMPRESSION_QUALITY);
+        Files.deleteIfExists(path);
+        try (final ImageOutputStream output = ImageIO.createImageOutputStream(path.toFile())) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * @return marker drawn for the node, null if it isn't drawn
+     */
+    private static Marker marker(final Node node) {
+        final PhaseMetrics.NodeCategory category = PhaseMetrics.NodeCategory.of(node);
+        if (category == PhaseMetrics.NodeCategory.CRATE) {
+            return node.getType().endsWith("_nonblocking") ? Marker.CRATE_NON_BLOCKING : Marker.CRATE_BLOCKING;
+        } else if (category != PhaseMetrics.NodeCategory.AREA) {
+            return null;
+        } else if (Node.TYPE_BOMBSITE.equals(node.getType())) {
+            return Marker.BOMBSITE;
+        } else if (Node.TYPE_TEAM_SPAWN.equals(node.getType())) {
+            return Node.FACTION_RESISTANCE.equals(node.getFaction()) ? Marker.RESISTANCE_SPAWN : Marker.METROPOLIS_SPAWN;
+        }
+        // buy zones cover the spawns
+        return null;
+    }
+
+    private void addMarker(final Marker marker, final Node node) {
+        if (markerCount == markerKinds.length) {
+            markerKinds = Arrays.copyOf(markerKinds, markerCount * 2);
+            markerLetters = Arrays.copyOf(markerLetters, markerCount * 2);
+            markerValues = Arrays.copyOf(markerValues, markerCount * 2 * MARKER_FLOATS);
+        }
+        markerKinds[markerCount] = (byte) marker.ordinal();
+        markerLetters[markerCount] = node.getLetter() == null || node.getLetter().isEmpty() ? 0 : node.getLetter().charAt(0);
+        final int i = markerCount * MARKER_FLOATS;
+        markerValues[i] = node.getPos()[0];
+        markerValues[i + 1] = node.getPos()[1];
+        // crates are drawn in CRATE_SIZE, their size may be null
+        markerValues[i + 2] = node.getSize() == null ? 0 : node.getSize()[0];
+        markerValues[i + 3] = node.getSize() == null ? 0 : node.getSize()[1];
+        markerValues[i + 4] = node.getRotation() == null ? 0 : node.getRotation();
+        markerCount++;
+    }
+
+    private void drawMarker(final Graphics2D graphics, final int marker) {
+        final int i = marker * MARKER_FLOATS;
+        final double scale = (double) tilePixels / TILE_SIZE.getW();
+        // world positions are tile centers, tile 0 starting at -half a tile
+        final double centerX = (markerValues[i] + TILE_SIZE.getW() / 2.0) * scale;
+        final double centerY = (markerValues[i + 1] + TILE_SIZE.getH() / 2.0) * scale;
+        final java.awt.Color color;
+        switch (MARKERS[markerKinds[marker]]) {
+            case CRATE_BLOCKING, CRATE_NON_BLOCKING -> {
+                final double size = CRATE_SIZE.getW() * scale;
+                final AffineTransform transform = graphics.getTransform();
+                graphics.rotate(Math.toRadians(markerValues[i + 4]), centerX, centerY);
+                graphics.setColor(MARKERS[markerKinds[marker]] == Marker.CRATE_NON_BLOCKING
+                    ? CRATE_NON_BLOCKING_COLOR
+                    : CRATE_BLOCKING_COLOR);
+                graphics.fill(new Rectangle2D.Double(centerX - size / 2, centerY - size / 2, size, size));
+                graphics.setTransform(transform);
+                return;
+            }
+            case BOMBSITE -> color = BOMBSITE_COLOR;
+            case RESISTANCE_SPAWN -> color = RESISTANCE_COLOR;
+            default -> color = METROPOLIS_COLOR;
+        }
+        final double w = markerValues[i + 2] * scale;
+        final double h = markerValues[i + 3] * scale;
+        final Rectangle2D area = new Rectangle2D.Double(centerX - w / 2, centerY - h / 2, w, h);
+        graphics.setColor(new java.awt.Color(color.getRed(), color.getGreen(), color.getBlue(), 70));
+        graphics.fill(area);
+        graphics.setColor(color);
+        graphics.draw(area);
+        if (markerLetters[marker] != 0) {
+            final String letter = String.valueOf(markerLetters[marker]);
+            final Rectangle2D bounds = graphics.getFontMetrics().getStringBounds(letter, graphics);
+            graphics.drawString(
+                letter,
+                (float) (centerX - bounds.getWidth() / 2),
+                (float) (centerY + bounds.getHeight() / 3));
+        }
+    }
+
+    /**
+     * Blends a band of the given thickness along a side of the tile: left, up, right or down.
+     */
+    private void blendSide(final int x0, final int y0, final int side, final int thickness, final int rgb, final int alpha) {
+        switch (side) {
+            case 0 -> blendRectangle(x0, y0, thickness, tilePixels, rgb, alpha);
+            case 1 -> blendRectangle(x0, y0, tilePixels, thickness, rgb, alpha);
+            case 2 -> blendRectangle(x0 + tilePixels - thickness, y0, thickness, tilePixels, rgb, alpha);
+            default -> blendRectangle(x0, y0 + tilePixels - thickness, tilePixels, thickness, rgb, alpha);
+        }
+    }
+
+    private void blendRectangle(final int x0, final int y0, final int w, final int h, final int rgb, final int alpha) {
+        for (int y = y0; y < y0 + h; y++) {
+            for (int i = y * imageWidth + x0; i < y * imageWidth + x0 + w; i++) {
+                pixels[i] = blend(pixels[i], rgb, alpha);
+            }
+        }
+    }
+
+    private static int rgb(final Color color) {
+        return clamp(color.getR()) << 16 | clamp(color.getG()) << 8 | clamp(color.getB());
+    }
+
+    private static int clamp(final int channel) {
+        return Math.max(0, Math.min(255, channel));
+    }
+
+    private static int blend(final int under, final int over, final int alpha) {
+        final int r = ((under >> 16 & 0xFF) * (255 - alpha) + (over >> 16 & 0xFF) * alpha) / 255;
+        final int g = ((under >> 8 & 0xFF) * (255 - alpha) + (over >> 8 & 0xFF) * alpha) / 255;
+        final int b = ((under & 0xFF) * (255 - alpha) + (over & 0xFF) * alpha) / 255;
+        return r << 16 | g << 8 | b;
+    }
+
+    @AllArgsConstructor
+    private class CapturingNodeSink implements NodeSink {
+        final NodeSink sink;
+
+        @Override
+        public GenerationContext getContext() {
+            return sink.getContext();
+        }
+
+        @Override
+        public void addNode(final Node node) {
+            final Marker marker = marker(node);
+            if (marker != null) {
+                addMarker(marker, node);
+            }
+            sink.addNode(node);
+        }
+    }
+}
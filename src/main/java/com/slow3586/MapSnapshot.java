@@ -0,0 +1,366 @@
+package com.slow3586;
+
+import com.slow3586.Main.Color;
+import com.slow3586.Main.Point;
+import com.slow3586.Main.Room;
+import com.slow3586.Main.Room.RoomStyle;
+import com.slow3586.Main.Size;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Binary snapshot of the rooms, room styles and cropped tile grid of a generated map,
+ * read through memory mapping so that tools and other processes can open it without parsing or copying.
+ * <p>
+ * The file is big-endian. It starts with a header of the int magic {@link #MAGIC}, the int version
+ * {@link #VERSION}, the int room rows, room columns, style count, map width, map height, map origin x and y,
+ * an unused int, then the long file offsets of the sections: rooms, styles, tile types, heights,
+ * style indexes, carcass and disabled. Sections start at multiples of 8 bytes:
+ * <ul>
+ * <li>rooms: row-major, {@link #ROOM_INTS} ints each: position x and y, size w and h, horizontal wall,
+ * vertical wall, horizontal door and vertical door as offset and width, style index, style size w and h,
+ * 1 if disabled</li>
+ * <li>styles: {@link #STYLE_INTS} ints each: height, floor color, wall color, pattern id floor,
+ * pattern id wall, pattern color floor, pattern color wall, colors as r, g, b, a</li>
+ * <li>tile types: one byte per tile, row-major, the {@link TileGrid.TileType} ordinal</li>
+ * <li>heights: one short per tile</li>
+ * <li>style indexes: one byte per tile</li>
+ * <li>carcass and disabled: bit sets of one bit per tile, in longs, bit i of the tile index in long i / 64</li>
+ * </ul>
+ * Room positions are uncropped, the map origin is the uncropped position of the map's tile (0, 0).
+ */
+public final class MapSnapshot {
+    public static final int MAGIC = 0x484D4753;
+    public static final int VERSION = 1;
+    public static final int ROOM_INTS = 16;
+    public static final int STYLE_INTS = 19;
+    private static final int HEADER_INTS = 10;
+    private static final int SECTION_COUNT = 7;
+    private static final int HEADER_SIZE = HEADER_INTS * Integer.BYTES + SECTION_COUNT * Long.BYTES;
+    private static final TileGrid.TileType[] TILE_TYPES = TileGrid.TileType.values();
+
+    @Getter
+    final int roomRows;
+    @Getter
+    final int roomColumns;
+    @Getter
+    final int styleCount;
+    @Getter
+    final int mapWidth;
+    @Getter
+    final int mapHeight;
+    @Getter
+    final Point mapOrigin;
+    final IntBuffer rooms;
+    final IntBuffer styles;
+    final ByteBuffer tileTypes;
+    final ShortBuffer heights;
+    final ByteBuffer styleIndexes;
+    final LongBuffer carcass;
+    final LongBuffer disabled;
+
+    private MapSnapshot(final FileChannel channel) throws IOException {
+        final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("#MapSnapshot: not a map snapshot");
+        }
+        final int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("#MapSnapshot: unsupported version " + version);
+        }
+        this.roomRows = header.getInt();
+        this.roomColumns = header.getInt();
+        this.styleCount = header.getInt();
+        this.mapWidth = header.getInt();
+        this.mapHeight = header.getInt();
+        this.mapOrigin = new Point(header.getInt(), header.getInt());
+        header.getInt();
+        final long[] offsets = new long[SECTION_COUNT];
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            offsets[i] = header.getLong();
+        }
+        final long[] sizes = sectionSizes(roomRows, roomColumns, styleCount, mapWidth, mapHeight);
+        this.rooms = map(channel, FileChannel.MapMode.READ_ONLY, offsets[0], sizes[0]).asIntBuffer();
+        this.styles = map(channel, FileChannel.MapMode.READ_ONLY, offsets[1], sizes[1]).asIntBuffer();
+        this.tileTypes = map(channel, FileChannel.MapMode.READ_ONLY, offsets[2], sizes[2]);
+        this.heights = map(channel, FileChannel.MapMode.READ_ONLY, offsets[3], sizes[3]).asShortBuffer();
+        this.styleIndexes = map(channel, FileChannel.MapMode.READ_ONLY, offsets[4], sizes[4]);
+        this.carcass = map(channel, FileChannel.MapMode.READ_ONLY, offsets[5], sizes[5]).asLongBuffer();
+        this.disabled = map(channel, FileChannel.MapMode.READ_ONLY, offsets[6], sizes[6]).asLongBuffer();
+    }
+
+    /**
+     * Maps the snapshot, the file can be closed and the mapping is kept until garbage collected.
+     */
+    public static MapSnapshot open(final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MapSnapshot(channel);
+        }
+    }
+
+    /**
+     * Writes a snapshot of a whole generated map.
+     */
+    public static void write(
+        final Path path,
+        final Room[][] rooms,
+        final RoomStyle[] styles,
+        final Point mapOrigin,
+        final TileGrid grid
+    ) throws IOException {
+        try (final Writer writer = new Writer(path, rooms, styles, mapOrigin, grid.width, grid.height)) {
+            writer.writeRows(grid, grid.originY, grid.endY());
+        }
+    }
+
+    public Room room(final int roomX, final int roomY) {
+        final int i = (roomY * roomColumns + roomX) * ROOM_INTS;
+        return new Room(
+            new Point(rooms.get(i), rooms.get(i + 1)),
+            new Size(rooms.get(i + 2), rooms.get(i + 3)),
+            new Room.Rect(rooms.get(i + 4), rooms.get(i + 5)),
+            new Room.Rect(rooms.get(i + 6), rooms.get(i + 7)),
+            new Room.Rect(rooms.get(i + 8), rooms.get(i + 9)),
+            new Room.Rect(rooms.get(i + 10), rooms.get(i + 11)),
+            rooms.get(i + 12),
+            new Size(rooms.get(i + 13), rooms.get(i + 14)),
+            rooms.get(i + 15) != 0);
+    }
+
+    public Room[][] rooms() {
+        final Room[][] result = new Room[roomRows][roomColumns];
+        for (int roomY = 0; roomY < roomRows; roomY++) {
+            for (int roomX = 0; roomX < roomColumns; roomX++) {
+                result[roomY][roomX] = room(roomX, roomY);
+            }
+        }
+        return result;
+    }
+
+    public RoomStyle style(final int styleIndex) {
+        final int i = styleIndex * STYLE_INTS;
+        return new RoomStyle(
+            styles.get(i),
+            color(styles, i + 1),
+            color(styles, i + 5),
+            styles.get(i + 9),
+            styles.get(i + 10),
+            color(styles, i + 11),
+            color(styles, i + 15));
+    }
+
+    public RoomStyle[] styles() {
+        final RoomStyle[] result = new RoomStyle[styleCount];
+        for (int i = 0; i < styleCount; i++) {
+            result[i] = style(i);
+        }
+        return result;
+    }
+
+    public TileGrid.TileType getTileType(final int x, final int y) {
+        return TILE_TYPES[tileTypes.get(index(x, y))];
+    }
+
+    public int getHeight(final int x, final int y) {
+        return heights.get(index(x, y));
+    }
+
+    public int getStyleIndex(final int x, final int y) {
+        return styleIndexes.get(index(x, y));
+    }
+
+    public boolean isCarcass(final int x, final int y) {
+        return bit(carcass, index(x, y));
+    }
+
+    public boolean isDisabled(final int x, final int y) {
+        return bit(disabled, index(x, y));
+    }
+
+    /**
+     * @return copy of the tiles as a grid, for the generation phases working on one
+     */
+    public TileGrid tileGrid() {
+        final TileGrid grid = new TileGrid(mapWidth, mapHeight);
+        tileTypes.get(0, grid.tileTypes);
+        heights.get(0, grid.heights);
+        styleIndexes.get(0, grid.styleIndexes);
+        for (int i = 0; i < grid.tileTypes.length; i++) {
+            grid.carcass.set(i, bit(carcass, i));
+            grid.disabled.set(i, bit(disabled, i));
+        }
+        return grid;
+    }
+
+    private int index(final int x, final int y) {
+        return y * mapWidth + x;
+    }
+
+    private static boolean bit(final LongBuffer bits, final int index) {
+        return (bits.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    private static Color color(final IntBuffer ints, final int i) {
+        return new Color(ints.get(i), ints.get(i + 1), ints.get(i + 2), ints.get(i + 3));
+    }
+
+    private static long[] sectionSizes(
+        final int roomRows,
+        final int roomColumns,
+        final int styleCount,
+        final int mapWidth,
+        final int mapHeight
+    ) {
+        final long tiles = (long) mapWidth * mapHeight;
+        return new long[]{
+            (long) roomRows * roomColumns * ROOM_INTS * Integer.BYTES,
+            (long) styleCount * STYLE_INTS * Integer.BYTES,
+            tiles,
+            tiles * Short.BYTES,
+            tiles,
+            (tiles + 63) / 64 * Long.BYTES,
+            (tiles + 63) / 64 * Long.BYTES};
+    }
+
+    private static MappedByteBuffer map(
+        final FileChannel channel,
+        final FileChannel.MapMode mode,
+        final long offset,
+        final long size
+    ) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("#map: snapshot section of " + size + " bytes is too large to map");
+        }
+        return channel.map(mode, offset, size);
+    }
+
+    /**
+     * Writes a snapshot whose tile rows are given in order, e.g. by chunked generation,
+     * through writable mappings of the file's sections.
+     */
+    public static final class Writer implements Closeable {
+        final FileChannel channel;
+        final int mapWidth;
+        final ByteBuffer tileTypes;
+        final ShortBuffer heights;
+        final ByteBuffer styleIndexes;
+        final LongBuffer carcass;
+        final LongBuffer disabled;
+
+        public Writer(
+            final Path path,
+            final Room[][] rooms,
+            final RoomStyle[] styles,
+            final Point mapOrigin,
+            final int mapWidth,
+            final int mapHeight
+        ) throws IOException {
+            this.channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            this.mapWidth = mapWidth;
+            final int roomColumns = rooms.length > 0 ? rooms[0].length : 0;
+            final long[] sizes = sectionSizes(rooms.length, roomColumns, styles.length, mapWidth, mapHeight);
+            final long[] offsets = new long[SECTION_COUNT];
+            long offset = HEADER_SIZE;
+            for (int i = 0; i < SECTION_COUNT; i++) {
+                offsets[i] = offset;
+                offset = (offset + sizes[i] + 7) / 8 * 8;
+            }
+
+            final ByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(rooms.length)
+                .putInt(roomColumns)
+                .putInt(styles.length)
+                .putInt(mapWidth)
+                .putInt(mapHeight)
+                .putInt(mapOrigin.getX())
+                .putInt(mapOrigin.getY())
+                .putInt(0);
+            for (final long sectionOffset : offsets) {
+                header.putLong(sectionOffset);
+            }
+
+            final IntBuffer roomInts = map(channel, FileChannel.MapMode.READ_WRITE, offsets[0], sizes[0]).asIntBuffer();
+            for (final Room[] row : rooms) {
+                for (final Room room : row) {
+                    roomInts.put(room.getRoomPosAbs().getX()).put(room.getRoomPosAbs().getY())
+                        .put(room.getRoomSize().getW()).put(room.getRoomSize().getH())
+                        .put(room.getWallHoriz().offset()).put(room.getWallHoriz().width())
+                        .put(room.getWallVert().offset()).put(room.getWallVert().width())
+                        .put(room.getDoorHoriz().offset()).put(room.getDoorHoriz().width())
+                        .put(room.getDoorVert().offset()).put(room.getDoorVert().width())
+                        .put(room.getStyleIndex())
+                        .put(room.getStyleSize().getW()).put(room.getStyleSize().getH())
+                        .put(room.isDisabled() ? 1 : 0);
+                }
+            }
+            final IntBuffer styleInts = map(channel, FileChannel.MapMode.READ_WRITE, offsets[1], sizes[1]).asIntBuffer();
+            for (final RoomStyle style : styles) {
+                styleInts.put(style.getHeight())
+                    .put(style.getFloorColor().intArray())
+                    .put(style.getWallColor().intArray())
+                    .put(style.getPatternIdFloor())
+                    .put(style.getPatternIdWall())
+                    .put(style.getPatternColorFloor().intArray())
+                    .put(style.getPatternColorWall().intArray());
+            }
+            this.tileTypes = map(channel, FileChannel.MapMode.READ_WRITE, offsets[2], sizes[2]);
+            this.heights = map(channel, FileChannel.MapMode.READ_WRITE, offsets[3], sizes[3]).asShortBuffer();
+            this.styleIndexes = map(channel, FileChannel.MapMode.READ_WRITE, offsets[4], sizes[4]);
+            this.carcass = map(channel, FileChannel.MapMode.READ_WRITE, offsets[5], sizes[5]).asLongBuffer();
+            this.disabled = map(channel, FileChannel.MapMode.READ_WRITE, offsets[6], sizes[6]).asLongBuffer();
+        }
+
+        /**
+         * Writes the rows [fromY, toY) of the grid, the grid must span the whole map width.
+         */
+        public void writeRows(final TileGrid grid, final int fromY, final int toY) {
+            if (fromY >= toY) {
+                return;
+            }
+            final int source = grid.index(grid.originX, fromY);
+            final int target = fromY * mapWidth;
+            final int length = (toY - fromY) * mapWidth;
+            tileTypes.put(target, grid.tileTypes, source, length);
+            heights.put(target, grid.heights, source, length);
+            styleIndexes.put(target, grid.styleIndexes, source, length);
+            setBits(carcass, grid.carcass, source, target, length);
+            setBits(disabled, grid.disabled, source, target, length);
+        }
+
+        private static void setBits(
+            final LongBuffer bits,
+            final BitSet from,
+            final int source,
+            final int target,
+            final int length
+        ) {
+            for (int i = from.nextSetBit(source); i >= 0 && i < source + length; i = from.nextSetBit(i + 1)) {
+                final int index = target + i - source;
+                bits.put(index >>> 6, bits.get(index >>> 6) | 1L << index);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
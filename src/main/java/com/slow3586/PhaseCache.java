@@ -0,0 +1,243 @@
+package com.slow3586;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.slow3586.Main.Configuration;
+import com.slow3586.Main.Geometry;
+import com.slow3586.Main.Point;
+import com.slow3586.Main.Room;
+import com.slow3586.Main.Size;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.slow3586.Main.OBJECT_MAPPER;
+
+/**
+ * On-disk cache of generation phases, so changing only colors doesn't regenerate the map geometry.
+ * <p>
+ * The {@link Geometry} (room layout, tile grid after the diagonal fix and shadow records) is keyed by
+ * a hash of the configuration fields it depends on. Colors, crates, effects and output settings
+ * are not part of the key, the resource and node phases are always run again.
+ * The key also covers the bytecode of the classes generating the geometry, so a rebuilt generator
+ * never reuses entries of a previous one; their files are left behind and can be deleted.
+ * Disabled if {@code phaseCacheDirectoryPath} is not set.
+ */
+public final class PhaseCache {
+    // bump when the geometry generation or the file format changes
+    private static final int FORMAT_VERSION = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final List<String> GEOMETRY_FIELDS = List.of(
+        "randomEnabled",
+        "randomSeed",
+        "cropMap",
+        "roomsCount",
+        "roomMinMaxSize",
+        "wallMinMaxSize",
+        "wallMaxOffset",
+        "doorMinMaxWidth",
+        "styleCount",
+        "styleHeightOverride",
+        "styleSizeMinMaxSize",
+        "wallHeight",
+        "roomsDisabled",
+        "roomsDoorDownDisabled",
+        "roomsDoorRightDisabled");
+    // with their nested and anonymous classes
+    private static final List<Class<?>> GEOMETRY_CLASSES = List.of(
+        Main.class,
+        ConfigEntryReader.class,
+        DiagonalWallFix.class,
+        GenerationContext.class,
+        GenerationRandom.class,
+        PhaseCache.class,
+        RoomLayout.class,
+        RoomMask.class,
+        ShadowEngine.class,
+        TileGrid.class);
+    private static byte[] codeDigest;
+
+    final Path geometryPath;
+
+    private PhaseCache(final Path geometryPath) {
+        this.geometryPath = geometryPath;
+    }
+
+    public static PhaseCache of(final Configuration config, final String configStr) throws IOException {
+        if (config.phaseCacheDirectoryPath == null || config.phaseCacheDirectoryPath.isEmpty()) {
+            return new PhaseCache(null);
+        }
+        final JsonNode configTree = OBJECT_MAPPER.readTree(configStr);
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("#of: " + config.mapName, e);
+        }
+        digest.update((FORMAT_VERSION + "," + DiagonalWallFix.VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(codeDigest());
+        for (final String field : GEOMETRY_FIELDS) {
+            digest.update((field + "=" + configTree.path(field) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return new PhaseCache(Path.of(
+            config.phaseCacheDirectoryPath,
+            "geometry_" + HexFormat.of().formatHex(digest.digest()) + ".bin"));
+    }
+
+    /**
+     * @return SHA-256 of the class files of {@link #GEOMETRY_CLASSES}
+     */
+    static synchronized byte[] codeDigest() throws IOException {
+        if (codeDigest != null) {
+            return codeDigest;
+        }
+        final Set<String> classNames = new TreeSet<>();
+        for (final Class<?> clazz : GEOMETRY_CLASSES) {
+            addClassNames(clazz, classNames);
+        }
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("#codeDigest: " + classNames, e);
+        }
+        for (final String className : classNames) {
+            try (final InputStream in = PhaseCache.class.getResourceAsStream(classResource(className))) {
+                if (in == null) {
+                    throw new RuntimeException("#codeDigest: class file of " + className + " not found");
+                }
+                digest.update(className.getBytes(StandardCharsets.UTF_8));
+                digest.update(in.readAllBytes());
+            }
+        }
+        codeDigest = digest.digest();
+        return codeDigest;
+    }
+
+    private static void addClassNames(final Class<?> clazz, final Set<String> classNames) {
+        classNames.add(clazz.getName());
+        for (final Class<?> nested : clazz.getDeclaredClasses()) {
+            addClassNames(nested, classNames);
+        }
+        // anonymous classes are numbered from 1
+        for (int i = 1; PhaseCache.class.getResource(classResource(clazz.getName() + "$" + i)) != null; i++) {
+            classNames.add(clazz.getName() + "$" + i);
+        }
+    }
+
+    private static String classResource(final String className) {
+        return "/" + className.replace('.', '/') + ".class";
+    }
+
+    public Optional<Geometry> loadGeometry(final Configuration config) {
+        if (geometryPath == null || !Files.exists(geometryPath)) {
+            return Optional.empty();
+        }
+        try (final DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(geometryPath), BUFFER_SIZE))
+        ) {
+            final Size[] diagonalRoomSizes = new Size[in.readInt()];
+            for (int i = 0; i < diagonalRoomSizes.length; i++) {
+                diagonalRoomSizes[i] = readSize(in);
+            }
+            final Room[][] rooms = new Room[in.readInt()][in.readInt()];
+            for (final Room[] row : rooms) {
+                for (int x = 0; x < row.length; x++) {
+                    row[x] = readRoom(in);
+                }
+            }
+            final TileGrid tiles = TileGrid.read(in);
+            final ShadowEngine shadows = ShadowEngine.read(in, config);
+            System.out.println("Reusing cached geometry " + geometryPath);
+            return Optional.of(new Geometry(diagonalRoomSizes, rooms, tiles, shadows));
+        } catch (IOException e) {
+            // a broken cache entry is regenerated
+            System.out.println("Ignoring unreadable cached geometry " + geometryPath + ": " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public void saveGeometry(final Geometry geometry) throws IOException {
+        if (geometryPath == null) {
+            return;
+        }
+        Files.createDirectories(geometryPath.getParent());
+        final Path tempPath = Files.createTempFile(geometryPath.getParent(), "geometry", ".tmp");
+        try (final DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(tempPath), BUFFER_SIZE))
+        ) {
+            out.writeInt(geometry.getDiagonalRoomSizes().length);
+            for (final Size size : geometry.getDiagonalRoomSizes()) {
+                writeSize(out, size);
+            }
+            out.writeInt(geometry.getRooms().length);
+            out.writeInt(geometry.getRooms()[0].length);
+            for (final Room[] row : geometry.getRooms()) {
+                for (final Room room : row) {
+                    writeRoom(out, room);
+                }
+            }
+            geometry.getTiles().write(out);
+            geometry.getShadows().write(out);
+        }
+        Files.move(tempPath, geometryPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeRoom(final DataOutputStream out, final Room room) throws IOException {
+        out.writeInt(room.getRoomPosAbs().getX());
+        out.writeInt(room.getRoomPosAbs().getY());
+        writeSize(out, room.getRoomSize());
+        writeRect(out, room.getWallHoriz());
+        writeRect(out, room.getWallVert());
+        writeRect(out, room.getDoorHoriz());
+        writeRect(out, room.getDoorVert());
+        out.writeInt(room.getStyleIndex());
+        writeSize(out, room.getStyleSize());
+        out.writeBoolean(room.isDisabled());
+    }
+
+    private static Room readRoom(final DataInputStream in) throws IOException {
+        return new Room(
+            new Point(in.readInt(), in.readInt()),
+            readSize(in),
+            readRect(in),
+            readRect(in),
+            readRect(in),
+            readRect(in),
+            in.readInt(),
+            readSize(in),
+            in.readBoolean());
+    }
+
+    private static void writeSize(final DataOutputStream out, final Size size) throws IOException {
+        out.writeInt(size.getW());
+        out.writeInt(size.getH());
+    }
+
+    private static Size readSize(final DataInputStream in) throws IOException {
+        return new Size(in.readInt(), in.readInt());
+    }
+
+    private static void writeRect(final DataOutputStream out, final Room.Rect rect) throws IOException {
+        out.writeInt(rect.offset());
+        out.writeInt(rect.width());
+    }
+
+    private static Room.Rect readRect(final DataInputStream in) throws IOException {
+        return new Room.Rect(in.readInt(), in.readInt());
+    }
+}
@@ -0,0 +1,225 @@
+package com.slow3586;
+
+import com.slow3586.Main.NodeSink;
+import com.slow3586.Main.Settings.Node;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static com.slow3586.Main.Settings.Node.ExternalResource.LINE_FLOOR;
+import static com.slow3586.Main.Settings.Node.ExternalResource.LINE_WALL;
+import static com.slow3586.Main.Settings.Node.ExternalResource.RESOURCE_ID_PREFIX;
+import static com.slow3586.Main.Settings.Node.ExternalResource.SHADOW_FLOOR_CORNER;
+import static com.slow3586.Main.Settings.Node.ExternalResource.SHADOW_FLOOR_LINE;
+import static com.slow3586.Main.Settings.Node.ExternalResource.SHADOW_WALL_CORNER;
+import static com.slow3586.Main.Settings.Node.ExternalResource.SHADOW_WALL_LINE;
+
+/**
+ * Wall time and allocated bytes of every generation phase, and node counts by category.
+ * <p>
+ * A phase lasts from its {@link #begin} until the next one or {@link #end()},
+ * a phase begun several times (e.g. once per chunk) is reported as the sum of its runs.
+ * Allocations are those of the generating thread and of the common fork-join pool workers running
+ * its parallel streams. In batch mode the maps generated at the same time share these workers, so
+ * parallel phases may include some of their allocations, other JVM threads are never counted.
+ * Every phase is also committed as a {@link GenerationEvents.PhaseEvent} for flight recordings.
+ */
+public final class PhaseMetrics {
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    final String mapName;
+    final List<Phase> phases = new ArrayList<>();
+    final AtomicIntegerArray nodeCounts = new AtomicIntegerArray(NodeCategory.values().length);
+    String currentPhase;
+    long currentPhaseStartNanos;
+    long currentPhaseStartBytes;
+    int currentPhaseStartNodes;
+    GenerationEvents.PhaseEvent currentPhaseEvent;
+
+    public PhaseMetrics(final String mapName) {
+        this.mapName = mapName;
+    }
+
+    public void begin(final String phase) {
+        end();
+        currentPhase = phase;
+        currentPhaseStartNodes = nodeCount();
+        currentPhaseStartBytes = allocatedBytes();
+        currentPhaseEvent = new GenerationEvents.PhaseEvent();
+        currentPhaseEvent.begin();
+        currentPhaseStartNanos = System.nanoTime();
+    }
+
+    public void end() {
+        if (currentPhase == null) {
+            return;
+        }
+        final long nanos = System.nanoTime() - currentPhaseStartNanos;
+        final long allocated = Math.max(0, allocatedBytes() - currentPhaseStartBytes);
+        currentPhaseEvent.commit(mapName, currentPhase, nodeCount() - currentPhaseStartNodes, allocated);
+        final Phase phase = new Phase(currentPhase, nanos / 1_000_000.0, allocated);
+        phases.stream()
+            .filter(previous -> previous.name.equals(phase.name))
+            .findFirst()
+            .ifPresentOrElse(
+                previous -> phases.set(phases.indexOf(previous), new Phase(
+                    phase.name,
+                    previous.millis + phase.millis,
+                    previous.allocatedBytes + phase.allocatedBytes)),
+                () -> phases.add(phase));
+        currentPhase = null;
+        currentPhaseEvent = null;
+    }
+
+    /**
+     * @return nodes counted so far, of all categories
+     */
+    public int nodeCount() {
+        int sum = 0;
+        for (int i = 0; i < nodeCounts.length(); i++) {
+            sum += nodeCounts.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * @return sink counting the nodes passed on to the given sink
+     */
+    public NodeSink countNodes(final NodeSink sink) {
+        return new CountingNodeSink(sink);
+    }
+
+    public Report report(final long randomSeed) {
+        end();
+        final Map<String, Integer> counts = new LinkedHashMap<>();
+        for (final NodeCategory category : NodeCategory.values()) {
+            counts.put(category.name().toLowerCase(), nodeCounts.get(category.ordinal()));
+        }
+        return new Report(
+            mapName,
+            randomSeed,
+            phases.stream().mapToDouble(Phase::getMillis).sum(),
+            phases.stream().mapToLong(Phase::getAllocatedBytes).sum(),
+            List.copyOf(phases),
+            counts);
+    }
+
+    /**
+     * @return bytes allocated so far by the calling thread and the common pool workers,
+     * workers that ended in between are lost, which {@link #end()} clamps at 0
+     */
+    private static long allocatedBytes() {
+        if (!THREAD_MX_BEAN.isThreadAllocatedMemorySupported() || !THREAD_MX_BEAN.isThreadAllocatedMemoryEnabled()) {
+            return 0;
+        }
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        Thread[] threads = new Thread[root.activeCount() + 8];
+        int count;
+        while ((count = root.enumerate(threads, true)) == threads.length) {
+            threads = new Thread[threads.length * 2];
+        }
+
+        final long[] threadIds = new long[count + 1];
+        int idCount = 0;
+        threadIds[idCount++] = Thread.currentThread().getId();
+        for (int i = 0; i < count; i++) {
+            if (threads[i] instanceof ForkJoinWorkerThread worker && worker.getPool() == ForkJoinPool.commonPool()) {
+                threadIds[idCount++] = worker.getId();
+            }
+        }
+        long sum = 0;
+        for (final long bytes : THREAD_MX_BEAN.getThreadAllocatedBytes(Arrays.copyOf(threadIds, idCount))) {
+            sum += Math.max(0, bytes);
+        }
+        return sum;
+    }
+
+    enum NodeCategory {
+        TILE,
+        SHADOW_LINE,
+        SHADOW_CORNER,
+        BLACK_LINE,
+        CRATE,
+        EFFECT,
+        AREA;
+
+        static NodeCategory of(final Node node) {
+            final String type = node.getType();
+            if (type.equals(RESOURCE_ID_PREFIX + LINE_FLOOR) || type.equals(RESOURCE_ID_PREFIX + LINE_WALL)) {
+                return BLACK_LINE;
+            } else if (type.equals(RESOURCE_ID_PREFIX + SHADOW_FLOOR_LINE) || type.equals(RESOURCE_ID_PREFIX + SHADOW_WALL_LINE)) {
+                return SHADOW_LINE;
+            } else if (type.equals(RESOURCE_ID_PREFIX + SHADOW_FLOOR_CORNER) || type.equals(RESOURCE_ID_PREFIX + SHADOW_WALL_CORNER)) {
+                return SHADOW_CORNER;
+            } else if (type.contains("_crate")) {
+                return CRATE;
+            } else if (type.startsWith(RESOURCE_ID_PREFIX + "style")) {
+                return TILE;
+            } else if (node.getFaction() != null || node.getLetter() != null) {
+                return AREA;
+            }
+            return EFFECT;
+        }
+    }
+
+    @AllArgsConstructor
+    private class CountingNodeSink implements NodeSink {
+        final NodeSink sink;
+
+        @Override
+        public GenerationContext getContext() {
+            return sink.getContext();
+        }
+
+        @Override
+        public void addNode(final Node node) {
+            nodeCounts.incrementAndGet(NodeCategory.of(node).ordinal());
+            sink.addNode(node);
+        }
+    }
+
+    @Value
+    public static class Phase {
+        String name;
+        double millis;
+        long allocatedBytes;
+    }
+
+    @Value
+    public static class Report {
+        String mapName;
+        long randomSeed;
+        double totalMillis;
+        long totalAllocatedBytes;
+        List<Phase> phases;
+        Map<String, Integer> nodeCounts;
+
+        public String summaryTable() {
+            final StringBuilder table = new StringBuilder(String.format(
+                "%-44s %10s %12s%n", "PHASE", "MS", "ALLOC MB"));
+            for (final Phase phase : phases) {
+                table.append(String.format("%-44s %10.1f %12.1f%n",
+                    phase.name, phase.millis, phase.allocatedBytes / 1048576.0));
+            }
+            table.append(String.format("%-44s %10.1f %12.1f%n",
+                "TOTAL", totalMillis, totalAllocatedBytes / 1048576.0));
+            nodeCounts.forEach((category, count) ->
+                table.append(String.format("%-44s %10d%n", "NODES " + category.toUpperCase(), count)));
+            return table.toString();
+        }
+    }
+
+}
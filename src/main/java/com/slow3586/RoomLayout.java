@@ -0,0 +1,65 @@
+package com.slow3586;
+
+import com.slow3586.Main.Point;
+import com.slow3586.Main.Size;
+
+/**
+ * Tile positions of the room grid, as prefix sums of the room column widths and row heights.
+ * <p>
+ * Column i is as wide as diagonal room size i, row j as high as diagonal room size j.
+ * Coordinates are of the uncropped map, where column 0 and row 0 are cut off by cropping.
+ */
+public final class RoomLayout {
+    // columnStarts[i] = sum of widths of columns before i, one extra entry for the total
+    final int[] columnStarts;
+    final int[] rowStarts;
+
+    public RoomLayout(final Size[] diagonalRoomSizes) {
+        this.columnStarts = new int[diagonalRoomSizes.length + 1];
+        this.rowStarts = new int[diagonalRoomSizes.length + 1];
+        for (int i = 0; i < diagonalRoomSizes.length; i++) {
+            columnStarts[i + 1] = columnStarts[i] + diagonalRoomSizes[i].getW();
+            rowStarts[i + 1] = rowStarts[i] + diagonalRoomSizes[i].getH();
+        }
+    }
+
+    /**
+     * @return number of columns, the same as the number of rows
+     */
+    public int diagonalLength() {
+        return columnStarts.length - 1;
+    }
+
+    public Point roomPosition(final int roomX, final int roomY) {
+        return new Point(columnStarts[roomX], rowStarts[roomY]);
+    }
+
+    public int columnWidth(final int roomX) {
+        return columnStarts[roomX + 1] - columnStarts[roomX];
+    }
+
+    public int rowHeight(final int roomY) {
+        return rowStarts[roomY + 1] - rowStarts[roomY];
+    }
+
+    /**
+     * @return total width of the first columnCount columns
+     */
+    public int width(final int columnCount) {
+        return columnStarts[columnCount];
+    }
+
+    /**
+     * @return total height of the first rowCount rows
+     */
+    public int height(final int rowCount) {
+        return rowStarts[rowCount];
+    }
+
+    /**
+     * @return position of the cropped map in the uncropped map
+     */
+    public Point cropOffset() {
+        return roomPosition(1, 1);
+    }
+}
@@ -0,0 +1,85 @@
+package com.slow3586;
+
+import com.fasterxml.jackson.core.JacksonException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.slow3586.Main.Point;
+import lombok.Value;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Set of rooms of the room grid, one bit per room.
+ * <p>
+ * Compiled once from the configured {@link Area} list, so lookups don't depend on the list size.
+ * Areas outside of the room grid are clipped.
+ */
+public final class RoomMask {
+    final int width;
+    final int height;
+    final BitSet rooms;
+
+    private RoomMask(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+        this.rooms = new BitSet(width * height);
+    }
+
+    /**
+     * @param areas may be null, then the mask is empty
+     */
+    public static RoomMask of(final Point roomsCount, final Area[] areas) {
+        final RoomMask mask = new RoomMask(roomsCount.getX(), roomsCount.getY());
+        if (areas == null) {
+            return mask;
+        }
+        for (final Area area : areas) {
+            final int x0 = Math.max(area.x0, 0);
+            final int x1 = Math.min(area.x1, mask.width - 1);
+            for (int y = Math.max(area.y0, 0); y <= Math.min(area.y1, mask.height - 1) && x0 <= x1; y++) {
+                mask.rooms.set(y * mask.width + x0, y * mask.width + x1 + 1);
+            }
+        }
+        return mask;
+    }
+
+    public boolean contains(final int x, final int y) {
+        return x >= 0 && y >= 0 && x < width && y < height && rooms.get(y * width + x);
+    }
+
+    public boolean contains(final Point room) {
+        return contains(room.getX(), room.getY());
+    }
+
+    /**
+     * Rectangle of rooms, inclusive on both ends.
+     * Written as "x,y", each coordinate being either a single index or a range "from..to",
+     * e.g. "3,4", "1..6,1" (a row of rooms) or "3..4,4..5" (a rectangle); a reversed range is swapped.
+     */
+    @Value
+    @JsonDeserialize(using = Area.AreaDeserializer.class)
+    public static class Area {
+        int x0;
+        int x1;
+        int y0;
+        int y1;
+
+        public static class AreaDeserializer extends StdDeserializer<Area> {
+            protected AreaDeserializer() {
+                super(Area.class);
+            }
+
+            @Override
+            public Area deserialize(
+                final JsonParser jsonParser,
+                final DeserializationContext deserializationContext
+            ) throws IOException, JacksonException {
+                final int[] ranges = ConfigEntryReader.readRanges(jsonParser, 2);
+                return new Area(ranges[0], ranges[1], ranges[2], ranges[3]);
+            }
+        }
+    }
+}
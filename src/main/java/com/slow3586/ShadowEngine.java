@@ -0,0 +1,333 @@
+package com.slow3586;
+
+import com.slow3586.Main.Color;
+import com.slow3586.Main.Configuration;
+import com.slow3586.Main.NodeSink;
+import com.slow3586.Main.Room.RoomStyle;
+import lombok.AllArgsConstructor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static com.slow3586.Main.Settings.Node.ExternalResource.LINE_FLOOR;
+import static com.slow3586.Main.Settings.Node.ExternalResource.LINE_WALL;
+import static com.slow3586.Main.Settings.Node.ExternalResource.SHADOW_FLOOR_CORNER;
+import static com.slow3586.Main.Settings.Node.ExternalResource.SHADOW_FLOOR_LINE;
+import static com.slow3586.Main.Settings.Node.ExternalResource.SHADOW_WALL_CORNER;
+import static com.slow3586.Main.Settings.Node.ExternalResource.SHADOW_WALL_LINE;
+
+/**
+ * Computes shadow and black line nodes of a tile grid.
+ * <p>
+ * Works on a copy of the grid padded by one tile on every side, the padding being
+ * the virtual tile outside of the map: a wall of style 0 and height 0.
+ * Rows are computed in parallel into per-row records, which are emitted in row order,
+ * so node order matches a sequential left-to-right, top-to-bottom pass.
+ * <p>
+ * For every tile, in order: shadow lines to the left, up, right and down
+ * (one node per height unit the neighbour is higher), shadow corners down-left, up-left,
+ * up-right and down-right (one node per height unit the diagonal neighbour is higher
+ * than both adjacent sides), then a black line on each side whose neighbour
+ * differs in height or style.
+ * <p>
+ * When collapsed, each stack of identical shadow nodes is emitted as one node instead.
+ * Stacking n nodes of alpha a covers {@code 1 - (1 - a)^n}, so the shadow resources get the
+ * coverage of the highest stack on the map and each node scales it down to its own stack
+ * through its color alpha. Black lines are never stacked and are left as they are.
+ * <p>
+ * Chunked generation computes the map in row windows, the highest stack is then not known
+ * in advance and the highest possible one, given by the style heights, is used instead.
+ */
+public final class ShadowEngine {
+    private static final int[] ROTATIONS = {0, 90, 180, -90};
+    // record = {x, type << 24 | rotation << 16 | count}
+    private static final int RECORD_SIZE = 2;
+    private static final int VIRTUAL_TILE_STYLE = 0;
+
+    final int originY;
+    final int width;
+    final int height;
+    final boolean collapse;
+    final Color floorTint;
+    final Color wallTint;
+    final int[][] rowRecords;
+    final int[] rowRecordCounts;
+    // highest node stack per type
+    final int[] maxNodeCounts = new int[Type.VALUES.length];
+
+    private ShadowEngine(final int originY, final int width, final int height, final Configuration config) {
+        this.originY = originY;
+        this.width = width;
+        this.height = height;
+        this.collapse = config.collapseShadowNodes;
+        this.floorTint = config.shadowTintFloor;
+        this.wallTint = config.shadowTintWall;
+        this.rowRecords = new int[height][];
+        this.rowRecordCounts = new int[height];
+    }
+
+    public static ShadowEngine compute(final TileGrid grid, final Configuration config) {
+        return compute(grid, config, 0, grid.height, grid.height, 0);
+    }
+
+    /**
+     * Computes the rows [fromY, toY) of a map with mapHeight rows, of which the grid holds a window.
+     * The window must span the whole map width and hold the rows next to the computed ones.
+     *
+     * @param maxNodeCountBound if positive, the highest node stack of every type,
+     *                          so that separately computed windows share the resource tints
+     */
+    public static ShadowEngine compute(
+        final TileGrid grid,
+        final Configuration config,
+        final int fromY,
+        final int toY,
+        final int mapHeight,
+        final int maxNodeCountBound
+    ) {
+        final ShadowEngine engine = new ShadowEngine(fromY, grid.width, toY - fromY, config);
+        final int paddedWidth = grid.width + 2;
+        final short[] heights = new short[paddedWidth * (engine.height + 2)];
+        final boolean[] walls = new boolean[heights.length];
+        final byte[] styles = new byte[heights.length];
+        Arrays.fill(walls, true);
+        Arrays.fill(styles, (byte) VIRTUAL_TILE_STYLE);
+        IntStream.range(fromY - 1, toY + 1)
+            .filter(y -> y >= 0 && y < mapHeight)
+            .parallel()
+            .forEach(y -> {
+                final int from = grid.index(grid.originX, y);
+                final int to = (y - fromY + 1) * paddedWidth + 1;
+                System.arraycopy(grid.heights, from, heights, to, grid.width);
+                System.arraycopy(grid.styleIndexes, from, styles, to, grid.width);
+                for (int x = 0; x < grid.width; x++) {
+                    walls[to + x] = grid.tileTypes[from + x] == TileGrid.TileType.WALL.ordinal();
+                }
+            });
+
+        IntStream.range(0, engine.height).parallel().forEach(y ->
+            engine.computeRow(y, paddedWidth, heights, walls, styles));
+
+        if (maxNodeCountBound > 0) {
+            Arrays.fill(engine.maxNodeCounts, maxNodeCountBound);
+            return engine;
+        }
+        for (int y = 0; y < engine.height; y++) {
+            final int[] records = engine.rowRecords[y];
+            for (int r = 0; r < engine.rowRecordCounts[y]; r++) {
+                final int packed = records[r * RECORD_SIZE + 1];
+                final int type = packed >>> 24;
+                engine.maxNodeCounts[type] = Math.max(engine.maxNodeCounts[type], packed & 0xFFFF);
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * @return highest possible node stack: the highest height difference between tiles of the given styles
+     * and the virtual tile outside of the map
+     */
+    public static int maxNodeCountBound(final RoomStyle[] styles, final Configuration config) {
+        int maxHeight = 0;
+        int minHeight = 0;
+        for (final RoomStyle style : styles) {
+            maxHeight = Math.max(maxHeight, style.getHeight() + Math.max(0, config.wallHeight));
+            minHeight = Math.min(minHeight, style.getHeight() + Math.min(0, config.wallHeight));
+        }
+        return Math.max(1, maxHeight - minHeight);
+    }
+
+    /**
+     * Writes the computed records, without the configured tints.
+     */
+    public void write(final DataOutputStream out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(height);
+        for (final int maxNodeCount : maxNodeCounts) {
+            out.writeInt(maxNodeCount);
+        }
+        for (int y = 0; y < height; y++) {
+            out.writeInt(rowRecordCounts[y]);
+            for (int i = 0; i < rowRecordCounts[y] * RECORD_SIZE; i++) {
+                out.writeInt(rowRecords[y][i]);
+            }
+        }
+    }
+
+    public static ShadowEngine read(final DataInputStream in, final Configuration config) throws IOException {
+        final ShadowEngine engine = new ShadowEngine(0, in.readInt(), in.readInt(), config);
+        for (int i = 0; i < engine.maxNodeCounts.length; i++) {
+            engine.maxNodeCounts[i] = in.readInt();
+        }
+        for (int y = 0; y < engine.height; y++) {
+            engine.rowRecordCounts[y] = in.readInt();
+            engine.rowRecords[y] = new int[engine.rowRecordCounts[y] * RECORD_SIZE];
+            for (int i = 0; i < engine.rowRecords[y].length; i++) {
+                engine.rowRecords[y][i] = in.readInt();
+            }
+        }
+        return engine;
+    }
+
+    private void computeRow(
+        final int y,
+        final int paddedWidth,
+        final short[] heights,
+        final boolean[] walls,
+        final byte[] styles
+    ) {
+        // left, up, right, down
+        final int[] sideOffsets = {-1, -paddedWidth, 1, paddedWidth};
+        // down-left, up-left, up-right, down-right
+        final int[] diagonalOffsets = {paddedWidth - 1, -paddedWidth - 1, -paddedWidth + 1, paddedWidth + 1};
+        // adjacent sides of each diagonal
+        final int[] diagonalSideOffsets0 = {paddedWidth, -paddedWidth, -paddedWidth, paddedWidth};
+        final int[] diagonalSideOffsets1 = {-1, -1, 1, 1};
+
+        int[] records = new int[width * RECORD_SIZE * 4];
+        int count = 0;
+        for (int x = 0; x < width; x++) {
+            final int i = (y + 1) * paddedWidth + x + 1;
+            final int h = heights[i];
+            final boolean wall = walls[i];
+
+            if (records.length < (count + 12) * RECORD_SIZE) {
+                records = Arrays.copyOf(records, records.length * 2);
+            }
+            for (int side = 0; side < 4; side++) {
+                final int n = i + sideOffsets[side];
+                final int hDif = heights[n] - h;
+                if (hDif > 0) {
+                    final Type type = wall || walls[n] ? Type.WALL_LINE : Type.FLOOR_LINE;
+                    count = record(records, count, x, type, side, hDif);
+                }
+            }
+            for (int corner = 0; corner < 4; corner++) {
+                final int d = i + diagonalOffsets[corner];
+                final int hDif = heights[d] - Math.max(
+                    heights[i + diagonalSideOffsets0[corner]],
+                    heights[i + diagonalSideOffsets1[corner]]);
+                if (hDif > 0) {
+                    final Type type = wall || walls[d] ? Type.WALL_CORNER : Type.FLOOR_CORNER;
+                    count = record(records, count, x, type, corner, hDif);
+                }
+            }
+            for (int side = 0; side < 4; side++) {
+                final int n = i + sideOffsets[side];
+                if (heights[n] != h || styles[n] != styles[i]) {
+                    count = record(records, count, x, wall ? Type.WALL_BLACK_LINE : Type.FLOOR_BLACK_LINE, side, 1);
+                }
+            }
+        }
+        rowRecords[y] = records;
+        rowRecordCounts[y] = count;
+    }
+
+    private static int record(
+        final int[] records,
+        final int count,
+        final int x,
+        final Type type,
+        final int rotation,
+        final int nodeCount
+    ) {
+        records[count * RECORD_SIZE] = x;
+        records[count * RECORD_SIZE + 1] = type.ordinal() << 24 | rotation << 16 | nodeCount;
+        return count + 1;
+    }
+
+    /**
+     * @return color of the resource used by shadows of the given type
+     */
+    public Color resourceTint(final Type type) {
+        final Color tint = configuredTint(type);
+        if (!collapse) {
+            return tint;
+        }
+        return new Color(
+            tint.getR(),
+            tint.getG(),
+            tint.getB(),
+            stackedAlpha(tint.getA(), maxNodeCounts[type.ordinal()]));
+    }
+
+    private Color configuredTint(final Type type) {
+        return type.wall ? wallTint : floorTint;
+    }
+
+    static int stackedAlpha(final int alpha, final int count) {
+        return (int) Math.round(255 * (1 - Math.pow(1 - alpha / 255.0, Math.max(1, count))));
+    }
+
+    /**
+     * Adds the computed nodes to the sink, in row order.
+     */
+    public void emit(final NodeSink sink) {
+        for (int y = 0; y < height; y++) {
+            final int[] records = rowRecords[y];
+            for (int r = 0; r < rowRecordCounts[y]; r++) {
+                final int x = records[r * RECORD_SIZE];
+                final int packed = records[r * RECORD_SIZE + 1];
+                final Type type = Type.VALUES[packed >>> 24];
+                final int rotation = ROTATIONS[(packed >>> 16) & 0xFF];
+                final int nodeCount = packed & 0xFFFF;
+                if (collapse && type.shadow) {
+                    final int resourceAlpha = resourceTint(type).getA();
+                    final int nodeAlpha = resourceAlpha == 0
+                        ? 255
+                        : Math.min(255, Math.round(
+                            255f * stackedAlpha(configuredTint(type).getA(), nodeCount) / resourceAlpha));
+                    sink.addTileNode(
+                        type.resourceName,
+                        x,
+                        originY + y,
+                        rotation,
+                        new Color(255, 255, 255, nodeAlpha).intArray());
+                } else {
+                    for (int n = 0; n < nodeCount; n++) {
+                        sink.addTileNode(type.resourceName, x, originY + y, rotation);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the computed shadows and black lines of the row y, counted from the first computed row.
+     */
+    public void forEachRecord(final int y, final RecordConsumer consumer) {
+        final int[] records = rowRecords[y];
+        for (int r = 0; r < rowRecordCounts[y]; r++) {
+            final int packed = records[r * RECORD_SIZE + 1];
+            consumer.accept(records[r * RECORD_SIZE], Type.VALUES[packed >>> 24], (packed >>> 16) & 0xFF, packed & 0xFFFF);
+        }
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        /**
+         * @param side      left, up, right, down for lines, down-left, up-left, up-right, down-right for corners
+         * @param nodeCount stacked nodes, 1 for black lines
+         */
+        void accept(int x, Type type, int side, int nodeCount);
+    }
+
+    @AllArgsConstructor
+    public enum Type {
+        WALL_LINE(SHADOW_WALL_LINE, true, true),
+        FLOOR_LINE(SHADOW_FLOOR_LINE, false, true),
+        WALL_CORNER(SHADOW_WALL_CORNER, true, true),
+        FLOOR_CORNER(SHADOW_FLOOR_CORNER, false, true),
+        WALL_BLACK_LINE(LINE_WALL, true, false),
+        FLOOR_BLACK_LINE(LINE_FLOOR, false, false);
+
+        static final Type[] VALUES = values();
+        final String resourceName;
+        final boolean wall;
+        // stacked per height unit
+        final boolean shadow;
+    }
+}
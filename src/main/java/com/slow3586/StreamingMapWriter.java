@@ -0,0 +1,122 @@
+package com.slow3586;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slow3586.Main.Map;
+import com.slow3586.Main.NodeSink;
+import com.slow3586.Main.Settings.Node;
+import lombok.Getter;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the map JSON while the nodes are generated, without keeping the nodes in memory.
+ * <p>
+ * The header fields and external resources are taken from a {@link Map} without nodes.
+ * Nodes are written as they are added, the layer listing their ids is written on {@link #close()}.
+ * Unlike {@link Map} serialization, {@code nodes} precede {@code layers} in the file.
+ * The file is written next to the target and moved over it once complete.
+ */
+public final class StreamingMapWriter implements NodeSink, Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    @Getter
+    final GenerationContext context;
+    final Path path;
+    final Path tempPath;
+    final String layerId;
+    final JsonGenerator generator;
+    // consecutive node id ranges as {first, last}, node ids are sequential so this stays tiny
+    final List<int[]> layerNodeIdRanges = new ArrayList<>();
+
+    public StreamingMapWriter(
+        final Path path,
+        final Map header,
+        final ObjectMapper objectMapper
+    ) throws IOException {
+        this.context = header.getContext();
+        this.path = path;
+        this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        this.layerId = header.getLayers().get(header.getLayers().size() - 1).getId();
+        this.generator = objectMapper.getFactory().createGenerator(
+            new BufferedOutputStream(
+                Channels.newOutputStream(FileChannel.open(
+                    tempPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)),
+                BUFFER_SIZE));
+
+        generator.writeStartObject();
+        generator.writeObjectField("meta", header.getMeta());
+        generator.writeObjectField("about", header.getAbout());
+        generator.writeObjectField("settings", header.getSettings());
+        generator.writeObjectField("playtesting", header.getPlaytesting());
+        generator.writeObjectField("external_resources", header.getExternal_resources());
+        generator.writeArrayFieldStart("nodes");
+    }
+
+    @Override
+    public void addNode(final Node node) {
+        try {
+            generator.writeObject(node);
+        } catch (IOException e) {
+            throw new RuntimeException("#addNode: " + node.getId(), e);
+        }
+
+        final int id = Integer.parseInt(node.getId());
+        final int[] lastRange = layerNodeIdRanges.isEmpty()
+            ? null
+            : layerNodeIdRanges.get(layerNodeIdRanges.size() - 1);
+        if (lastRange != null && lastRange[1] + 1 == id) {
+            lastRange[1] = id;
+        } else {
+            layerNodeIdRanges.add(new int[]{id, id});
+        }
+    }
+
+    /**
+     * Completes the file and moves it over the target; if that fails, the temporary file is deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            generator.writeEndArray();
+
+            generator.writeArrayFieldStart("layers");
+            generator.writeStartObject();
+            generator.writeStringField("id", layerId);
+            generator.writeArrayFieldStart("nodes");
+            for (final int[] range : layerNodeIdRanges) {
+                for (int id = range[0]; id <= range[1]; id++) {
+                    generator.writeString(String.valueOf(id));
+                }
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndArray();
+
+            generator.writeEndObject();
+            generator.close();
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            try {
+                generator.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.slow3586;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.slow3586.TileGrid.TileType.DOOR;
+import static com.slow3586.TileGrid.TileType.WALL;
+
+/**
+ * Writes the text output of a map: the carcass, walls, heights and styles sections one after another.
+ * <p>
+ * {@link #write} streams a whole grid section by section through a buffer. For a map given
+ * row by row, e.g. by chunked generation, every section is written into its own temporary file
+ * next to the target, and the sections are concatenated into the target on {@link #close()}.
+ * <p>
+ * In the {@link Format#BINARY} format, the file starts with the int magic {@link #BINARY_MAGIC},
+ * the int version {@link #BINARY_VERSION}, the int map width and height, followed by the sections
+ * without headers. Every row of a section is a series of runs of equal values, each a run length
+ * and a value, the run lengths of a row adding up to the map width. Values are the character
+ * codes of the text output for the carcass and walls, the numbers for heights and styles.
+ * Ints of the file start are big-endian, as written by {@link DataOutputStream}. Run lengths and values
+ * are varints: 7 bits per byte starting from the lowest, the high bit set on all but the last byte,
+ * values zigzag encoded first ({@code (v << 1) ^ (v >> 31)}) so small negative heights stay short.
+ */
+public final class TextMapWriter implements Closeable {
+    public static final int BINARY_MAGIC = 0x484D4754;
+    public static final int BINARY_VERSION = 1;
+    private static final String[] SECTION_HEADERS = {"Carcass:", "Walls:", "Heights:", "Styles:"};
+    private static final byte[] SECTION_SEPARATOR = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+    final Path path;
+    final Format format;
+    final int mapWidth;
+    final int mapHeight;
+    final Path[] sectionPaths = new Path[SECTION_HEADERS.length];
+    final DataOutputStream[] sectionOutputs = new DataOutputStream[SECTION_HEADERS.length];
+
+    public enum Format {
+        TEXT,
+        BINARY
+    }
+
+    public TextMapWriter(final Path path, final Format format, final int mapWidth, final int mapHeight) throws IOException {
+        this.path = path;
+        this.format = format;
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+        for (int section = 0; section < SECTION_HEADERS.length; section++) {
+            sectionPaths[section] = path.resolveSibling(path.getFileName() + ".section" + section + ".tmp");
+            sectionOutputs[section] = open(sectionPaths[section]);
+            writeSectionStart(sectionOutputs[section], format, section);
+        }
+    }
+
+    /**
+     * Writes the whole grid into the file, one section after another.
+     */
+    public static void write(final Path path, final Format format, final TileGrid grid) throws IOException {
+        try (final DataOutputStream output = open(path)) {
+            writeFileStart(output, format, grid.width, grid.height);
+            for (int section = 0; section < SECTION_HEADERS.length; section++) {
+                if (section > 0) {
+                    writeSectionSeparator(output, format);
+                }
+                writeSectionStart(output, format, section);
+                for (int y = grid.originY; y < grid.endY(); y++) {
+                    writeRow(output, format, section, grid, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the rows [fromY, toY) of the grid, the grid must span the whole map width.
+     */
+    public void writeRows(final TileGrid grid, final int fromY, final int toY) throws IOException {
+        for (int y = fromY; y < toY; y++) {
+            for (int section = 0; section < SECTION_HEADERS.length; section++) {
+                writeRow(sectionOutputs[section], format, section, grid, y);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final DataOutputStream output : sectionOutputs) {
+            output.close();
+        }
+        try (final FileChannel target = FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)
+        ) {
+            final ByteArrayOutputStream fileStart = new ByteArrayOutputStream();
+            writeFileStart(new DataOutputStream(fileStart), format, mapWidth, mapHeight);
+            target.write(ByteBuffer.wrap(fileStart.toByteArray()));
+            for (int section = 0; section < sectionPaths.length; section++) {
+                if (section > 0 && format == Format.TEXT) {
+                    target.write(ByteBuffer.wrap(SECTION_SEPARATOR));
+                }
+                try (final FileChannel sectionChannel = FileChannel.open(sectionPaths[section])) {
+                    long position = 0;
+                    while (position < sectionChannel.size()) {
+                        position += sectionChannel.transferTo(position, sectionChannel.size() - position, target);
+                    }
+                }
+                Files.delete(sectionPaths[section]);
+            }
+        }
+    }
+
+    private static DataOutputStream open(final Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+    }
+
+    private static void writeFileStart(
+        final DataOutputStream output,
+        final Format format,
+        final int mapWidth,
+        final int mapHeight
+    ) throws IOException {
+        if (format == Format.BINARY) {
+            output.writeInt(BINARY_MAGIC);
+            output.writeInt(BINARY_VERSION);
+            output.writeInt(mapWidth);
+            output.writeInt(mapHeight);
+        }
+    }
+
+    private static void writeSectionSeparator(final DataOutputStream output, final Format format) throws IOException {
+        if (format == Format.TEXT) {
+            output.write(SECTION_SEPARATOR);
+        }
+    }
+
+    private static void writeSectionStart(final DataOutputStream output, final Format format, final int section) throws IOException {
+        if (format == Format.TEXT) {
+            output.writeBytes(SECTION_HEADERS[section]);
+        }
+    }
+
+    private static void writeRow(
+        final DataOutputStream output,
+        final Format format,
+        final int section,
+        final TileGrid grid,
+        final int y
+    ) throws IOException {
+        if (format == Format.TEXT) {
+            output.write('\n');
+            for (int x = grid.originX; x < grid.endX(); x++) {
+                final int value = value(section, grid, x, y);
+                if (section < 2) {
+                    output.write(value);
+                } else {
+                    output.writeBytes(String.valueOf(value));
+                }
+            }
+        } else {
+            int runValue = value(section, grid, grid.originX, y);
+            int runLength = 1;
+            for (int x = grid.originX + 1; x < grid.endX(); x++) {
+                final int value = value(section, grid, x, y);
+                if (value != runValue) {
+                    writeRun(output, runLength, runValue);
+                    runValue = value;
+                    runLength = 0;
+                }
+                runLength++;
+            }
+            writeRun(output, runLength, runValue);
+        }
+    }
+
+    private static void writeRun(final DataOutputStream output, final int length, final int value) throws IOException {
+        writeVarInt(output, length);
+        writeVarInt(output, (value << 1) ^ (value >> 31));
+    }
+
+    private static void writeVarInt(final DataOutputStream output, final int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            output.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        output.write(remaining);
+    }
+
+    /**
+     * @return character of the tile in the carcass and walls sections, number in the heights and styles sections
+     */
+    private static int value(final int section, final TileGrid grid, final int x, final int y) {
+        switch (section) {
+            case 0:
+                final boolean carcass = grid.isCarcass(x, y);
+                return grid.isDisabled(x, y) && !carcass
+                    ? 'X'
+                    : carcass || x == 0 || y == 0
+                        ? '#'
+                        : '_';
+            case 1:
+                final TileGrid.TileType tileType = grid.getTileType(x, y);
+                return tileType == WALL
+                    ? '#'
+                    : tileType == DOOR
+                        ? '.'
+                        : '_';
+            case 2:
+                return grid.getHeight(x, y);
+            default:
+                return grid.getStyleIndex(x, y);
+        }
+    }
+}
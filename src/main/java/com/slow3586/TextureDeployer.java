@@ -0,0 +1,78 @@
+package com.slow3586;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Deploys textures into a map's gfx directory, skipping targets that are already up to date.
+ * <p>
+ * Copies keep the source's modification time, so a target with the same size and modification time as
+ * its source is left alone without reading it; a texture changed on either side is copied again.
+ * Only sources are hashed, through the cache. Otherwise a target is replaced by a copy of the source.
+ * With hard links enabled it is replaced by a hard link instead, falling back to a copy if linking is not
+ * supported, and a target that is the source itself is left alone; the game directory then shares the files
+ * with textures/, so an editor saving a texture of the map rewrites the generator's source texture too.
+ * With hard links disabled, links left by earlier runs are replaced by copies.
+ */
+public final class TextureDeployer {
+    final Path sourceDirectory;
+    final Path targetDirectory;
+    final FileHashCache hashCache;
+    final boolean hardLinks;
+
+    public TextureDeployer(
+        final Path sourceDirectory,
+        final Path targetDirectory,
+        final FileHashCache hashCache,
+        final boolean hardLinks
+    ) {
+        this.sourceDirectory = sourceDirectory;
+        this.targetDirectory = targetDirectory;
+        this.hashCache = hashCache;
+        this.hardLinks = hardLinks;
+    }
+
+    /**
+     * @return hex BLAKE3 of the deployed file
+     */
+    public String deploy(final String sourceFilename, final String targetFilename) throws IOException {
+        final GenerationEvents.TextureEvent event = new GenerationEvents.TextureEvent();
+        event.begin();
+        final Path sourcePath = sourceDirectory.resolve(sourceFilename);
+        final Path targetPath = targetDirectory.resolve(targetFilename);
+        final String sourceHash = hashCache.hash(sourcePath);
+        event.commit(sourcePath, targetPath, replaceTarget(sourcePath, targetPath));
+        return sourceHash;
+    }
+
+    /**
+     * @return SKIPPED, LINKED or COPIED
+     */
+    private String replaceTarget(final Path sourcePath, final Path targetPath) throws IOException {
+        if (Files.exists(targetPath)) {
+            final boolean linked = Files.isSameFile(sourcePath, targetPath);
+            if (linked && hardLinks) {
+                return "SKIPPED";
+            }
+            if (!linked
+                && Files.size(targetPath) == Files.size(sourcePath)
+                && Files.getLastModifiedTime(targetPath).equals(Files.getLastModifiedTime(sourcePath))) {
+                return "SKIPPED";
+            }
+            Files.delete(targetPath);
+        }
+
+        if (hardLinks) {
+            try {
+                Files.createLink(targetPath, sourcePath);
+                return "LINKED";
+            } catch (UnsupportedOperationException | IOException e) {
+                // copied below
+            }
+        }
+        Files.copy(sourcePath, targetPath, StandardCopyOption.COPY_ATTRIBUTES);
+        return "COPIED";
+    }
+}
@@ -0,0 +1,223 @@
+package com.slow3586;
+
+import lombok.Getter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Tile map stored as flat row-major primitive arrays, one array per tile property.
+ * <p>
+ * A grid may cover only a window of a larger map, tiles are then addressed by map coordinates:
+ * the window starts at (originX, originY) and is width x height tiles.
+ */
+@Getter
+public final class TileGrid {
+    public static final int NO_STYLE = -1;
+    // style indexes are stored as bytes, -1 being NO_STYLE
+    public static final int MAX_STYLE_COUNT = Byte.MAX_VALUE;
+    private static final TileType[] TILE_TYPES = TileType.values();
+
+    final int originX;
+    final int originY;
+    final int width;
+    final int height;
+    final byte[] tileTypes;
+    final short[] heights;
+    final byte[] styleIndexes;
+    final BitSet carcass;
+    final BitSet disabled;
+
+    public TileGrid(final int width, final int height) {
+        this(0, 0, width, height);
+    }
+
+    public TileGrid(final int originX, final int originY, final int width, final int height) {
+        this.originX = originX;
+        this.originY = originY;
+        this.width = width;
+        this.height = height;
+        this.tileTypes = new byte[width * height];
+        this.heights = new short[width * height];
+        this.styleIndexes = new byte[width * height];
+        this.carcass = new BitSet(width * height);
+        this.disabled = new BitSet(width * height);
+        Arrays.fill(styleIndexes, (byte) NO_STYLE);
+    }
+
+    private TileGrid(final TileGrid grid, final int originX, final int originY) {
+        this.originX = originX;
+        this.originY = originY;
+        this.width = grid.width;
+        this.height = grid.height;
+        this.tileTypes = grid.tileTypes;
+        this.heights = grid.heights;
+        this.styleIndexes = grid.styleIndexes;
+        this.carcass = grid.carcass;
+        this.disabled = grid.disabled;
+    }
+
+    /**
+     * @return grid sharing the tiles of this one, addressed with coordinates shifted by (dx, dy)
+     */
+    public TileGrid translated(final int dx, final int dy) {
+        return new TileGrid(this, originX + dx, originY + dy);
+    }
+
+    public int index(final int x, final int y) {
+        return (y - originY) * width + x - originX;
+    }
+
+    public boolean inBounds(final int x, final int y) {
+        return x >= originX && y >= originY && x < originX + width && y < originY + height;
+    }
+
+    public int endX() {
+        return originX + width;
+    }
+
+    public int endY() {
+        return originY + height;
+    }
+
+    public TileType getTileType(final int x, final int y) {
+        return TILE_TYPES[tileTypes[index(x, y)]];
+    }
+
+    public void setTileType(final int x, final int y, final TileType tileType) {
+        tileTypes[index(x, y)] = (byte) tileType.ordinal();
+    }
+
+    public boolean isWall(final int x, final int y) {
+        return tileTypes[index(x, y)] == TileType.WALL.ordinal();
+    }
+
+    public int getHeight(final int x, final int y) {
+        return heights[index(x, y)];
+    }
+
+    public void setHeight(final int x, final int y, final int height) {
+        heights[index(x, y)] = (short) height;
+    }
+
+    public int getStyleIndex(final int x, final int y) {
+        return styleIndexes[index(x, y)];
+    }
+
+    public void setStyleIndex(final int x, final int y, final int styleIndex) {
+        styleIndexes[index(x, y)] = (byte) styleIndex;
+    }
+
+    public boolean isCarcass(final int x, final int y) {
+        return carcass.get(index(x, y));
+    }
+
+    public void setCarcass(final int x, final int y, final boolean value) {
+        carcass.set(index(x, y), value);
+    }
+
+    public boolean isDisabled(final int x, final int y) {
+        return disabled.get(index(x, y));
+    }
+
+    public void setDisabled(final int x, final int y, final boolean value) {
+        disabled.set(index(x, y), value);
+    }
+
+    public void copyTile(final int fromX, final int fromY, final int toX, final int toY) {
+        final int from = index(fromX, fromY);
+        final int to = index(toX, toY);
+        tileTypes[to] = tileTypes[from];
+        heights[to] = heights[from];
+        styleIndexes[to] = styleIndexes[from];
+        carcass.set(to, carcass.get(from));
+        disabled.set(to, disabled.get(from));
+    }
+
+    /**
+     * Copies the rows [fromY, toY) of a grid with the same columns.
+     */
+    public void copyRows(final TileGrid from, final int fromY, final int toY) {
+        if (fromY >= toY) {
+            return;
+        }
+        final int source = from.index(originX, fromY);
+        final int target = index(originX, fromY);
+        final int length = (toY - fromY) * width;
+        System.arraycopy(from.tileTypes, source, tileTypes, target, length);
+        System.arraycopy(from.heights, source, heights, target, length);
+        System.arraycopy(from.styleIndexes, source, styleIndexes, target, length);
+        for (int i = from.carcass.nextSetBit(source); i >= 0 && i < source + length; i = from.carcass.nextSetBit(i + 1)) {
+            carcass.set(target + i - source);
+        }
+        for (int i = from.disabled.nextSetBit(source); i >= 0 && i < source + length; i = from.disabled.nextSetBit(i + 1)) {
+            disabled.set(target + i - source);
+        }
+    }
+
+    /**
+     * @return a copy of the given rectangle of this grid
+     */
+    public TileGrid crop(final int x, final int y, final int w, final int h) {
+        final TileGrid result = new TileGrid(w, h);
+        for (int row = 0; row < h; row++) {
+            final int from = index(x, y + row);
+            final int to = result.index(0, row);
+            System.arraycopy(tileTypes, from, result.tileTypes, to, w);
+            System.arraycopy(heights, from, result.heights, to, w);
+            System.arraycopy(styleIndexes, from, result.styleIndexes, to, w);
+            for (int i = carcass.nextSetBit(from); i >= 0 && i < from + w; i = carcass.nextSetBit(i + 1)) {
+                result.carcass.set(to + i - from);
+            }
+            for (int i = disabled.nextSetBit(from); i >= 0 && i < from + w; i = disabled.nextSetBit(i + 1)) {
+                result.disabled.set(to + i - from);
+            }
+        }
+        return result;
+    }
+
+    public void write(final DataOutputStream out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(height);
+        out.write(tileTypes);
+        for (final short tileHeight : heights) {
+            out.writeShort(tileHeight);
+        }
+        out.write(styleIndexes);
+        writeBitSet(out, carcass);
+        writeBitSet(out, disabled);
+    }
+
+    public static TileGrid read(final DataInputStream in) throws IOException {
+        final TileGrid grid = new TileGrid(in.readInt(), in.readInt());
+        in.readFully(grid.tileTypes);
+        for (int i = 0; i < grid.heights.length; i++) {
+            grid.heights[i] = in.readShort();
+        }
+        in.readFully(grid.styleIndexes);
+        grid.carcass.or(readBitSet(in));
+        grid.disabled.or(readBitSet(in));
+        return grid;
+    }
+
+    private static void writeBitSet(final DataOutputStream out, final BitSet bitSet) throws IOException {
+        final byte[] bytes = bitSet.toByteArray();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static BitSet readBitSet(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return BitSet.valueOf(bytes);
+    }
+
+    public enum TileType {
+        FLOOR,
+        WALL,
+        DOOR
+    }
+}
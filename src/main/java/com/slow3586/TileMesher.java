@@ -0,0 +1,100 @@
+package com.slow3586;
+
+import java.util.BitSet;
+
+/**
+ * Splits a tile grid into rectangles of tiles with the same tile type and style,
+ * so every rectangle can be drawn by a single resized node.
+ * <p>
+ * Rectangles are found greedily in row-major order: starting at the first uncovered tile,
+ * a rectangle is extended to the right as far as possible, then down while the whole
+ * row below matches. Rectangles are reported in the order of their top-left tiles.
+ */
+public final class TileMesher {
+    private TileMesher() {
+    }
+
+    @FunctionalInterface
+    public interface RectangleConsumer {
+        void accept(int x, int y, int w, int h);
+    }
+
+    /**
+     * @param merge if false, every tile is reported as its own 1x1 rectangle
+     */
+    public static void forEachRectangle(
+        final TileGrid grid,
+        final boolean merge,
+        final RectangleConsumer consumer
+    ) {
+        forEachRectangle(grid, grid.originY, grid.endY(), merge, consumer);
+    }
+
+    /**
+     * Same as {@link #forEachRectangle(TileGrid, boolean, RectangleConsumer)} for the rows [fromY, toY)
+     * of the grid, rectangles don't extend past them.
+     */
+    public static void forEachRectangle(
+        final TileGrid grid,
+        final int fromY,
+        final int toY,
+        final boolean merge,
+        final RectangleConsumer consumer
+    ) {
+        if (!merge) {
+            Main.forEachPoint(grid.originX, fromY, grid.width, toY - fromY, (x, y) -> consumer.accept(x, y, 1, 1));
+            return;
+        }
+
+        // bit i covers tile first + i
+        final int first = grid.index(grid.originX, fromY);
+        final BitSet covered = new BitSet(grid.width * (toY - fromY));
+        for (int y = fromY; y < toY; y++) {
+            final int rowStart = grid.index(grid.originX, y);
+            for (int x = grid.originX + covered.nextClearBit(rowStart - first) - (rowStart - first);
+                 x < grid.endX();
+                 x = grid.originX + covered.nextClearBit(grid.index(x, y) - first) - (rowStart - first)) {
+                final int start = grid.index(x, y);
+
+                int w = 1;
+                while (x + w < grid.endX()
+                    && !covered.get(start + w - first)
+                    && sameKey(grid, start, start + w)) {
+                    w++;
+                }
+
+                int h = 1;
+                while (y + h < toY && rowMatches(grid, covered, first, start, grid.index(x, y + h), w)) {
+                    h++;
+                }
+
+                for (int row = 0; row < h; row++) {
+                    final int coveredStart = start + row * grid.width - first;
+                    covered.set(coveredStart, coveredStart + w);
+                }
+                consumer.accept(x, y, w, h);
+            }
+        }
+    }
+
+    private static boolean rowMatches(
+        final TileGrid grid,
+        final BitSet covered,
+        final int first,
+        final int key,
+        final int rowStart,
+        final int w
+    ) {
+        for (int i = rowStart; i < rowStart + w; i++) {
+            if (covered.get(i - first) || !sameKey(grid, key, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameKey(final TileGrid grid, final int a, final int b) {
+        return (grid.tileTypes[a] == TileGrid.TileType.WALL.ordinal()) == (grid.tileTypes[b] == TileGrid.TileType.WALL.ordinal())
+            && grid.styleIndexes[a] == grid.styleIndexes[b];
+    }
+}
@@ -0,0 +1,97 @@
+package com.slow3586;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import static com.slow3586.Main.CONFIG_FILE_PATH;
+import static com.slow3586.Main.OBJECT_MAPPER;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Stays running and regenerates the map whenever config.json or a texture changes.
+ * <p>
+ * Changes are collected until none arrive for {@link #DEBOUNCE_MS}, so an editor saving
+ * several times in a row triggers a single generation. A failing generation (e.g. config.json
+ * saved halfway through an edit) is reported and the next change is waited for.
+ * Keeping the JVM alive reuses the JIT-compiled code, the ObjectMapper and the hash and phase caches.
+ */
+public final class WatchGenerator {
+    private static final long DEBOUNCE_MS = 300;
+    private static final String TEXTURES_DIRECTORY = "textures";
+
+    private WatchGenerator() {}
+
+    public static void run() throws IOException {
+        final Path configPath = Path.of(CONFIG_FILE_PATH).toAbsolutePath();
+        final Path texturesPath = Path.of(TEXTURES_DIRECTORY).toAbsolutePath();
+
+        try (final WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            configPath.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            if (Files.isDirectory(texturesPath)) {
+                texturesPath.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            }
+
+            int run = 1;
+            generate(configPath, run++);
+            System.out.println("Watching " + configPath + " and " + texturesPath + ", press Ctrl+C to stop");
+            while (true) {
+                boolean changed = takeChange(watchService.take(), configPath, texturesPath);
+                // debounce: keep collecting until the files stay unchanged for a while
+                WatchKey key;
+                while ((key = watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= takeChange(key, configPath, texturesPath);
+                }
+                if (changed) {
+                    generate(configPath, run++);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Stopped watching");
+        }
+    }
+
+    /**
+     * Consumes the events of the key.
+     *
+     * @return whether any of them concerns config.json or the textures
+     */
+    private static boolean takeChange(final WatchKey key, final Path configPath, final Path texturesPath) {
+        final Path directory = (Path) key.watchable();
+        boolean changed = false;
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            changed |= event.kind() == OVERFLOW
+                || directory.equals(texturesPath)
+                || directory.resolve((Path) event.context()).equals(configPath);
+        }
+        key.reset();
+        return changed;
+    }
+
+    private static void generate(final Path configPath, final int run) {
+        final long start = System.nanoTime();
+        try {
+            final String configStr = Files.readString(configPath);
+            final Main.Configuration config = OBJECT_MAPPER.readValue(configStr, Main.Configuration.class);
+            final long parsed = System.nanoTime();
+            Main.generate(config, configStr, false);
+            final long end = System.nanoTime();
+            System.out.println("Run " + run + ": generated in " + TimeUnit.NANOSECONDS.toMillis(end - start)
+                + "ms (config " + TimeUnit.NANOSECONDS.toMillis(parsed - start)
+                + "ms, generation " + TimeUnit.NANOSECONDS.toMillis(end - parsed) + "ms)");
+        } catch (Exception e) {
+            new RuntimeException("#generate: run " + run + " failed, waiting for the next change", e)
+                .printStackTrace();
+        }
+    }
+}
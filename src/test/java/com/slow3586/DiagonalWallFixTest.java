@@ -0,0 +1,83 @@
+package com.slow3586;
+
+import com.slow3586.Main.Configuration;
+import org.junit.jupiter.api.Test;
+
+import static com.slow3586.TileGrid.TileType.WALL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiagonalWallFixTest {
+    private static final int WIDTH = 9;
+    private static final int HEIGHT = 64;
+    private static final int STAIRCASE_X = 4;
+    private static final int STAIRCASE_BOTTOM = 56;
+
+    /**
+     * Column x is wall, x - 1 and x + 1 alternate, with a diagonal at the bottom. Every fix makes
+     * the square diagonally above it diagonal, so the chain climbs one row per round up to row 1.
+     * <pre>
+     * #__   rows above alternate like the two below
+     * _##
+     * ##_   fixing the diagonal below makes the square at x - 1 above it diagonal
+     * _#_
+     * __#
+     * </pre>
+     */
+    private static TileGrid staircase() {
+        final TileGrid grid = new TileGrid(WIDTH, HEIGHT);
+        for (int y = 1; y <= STAIRCASE_BOTTOM; y++) {
+            grid.setTileType(STAIRCASE_X, y, WALL);
+            final boolean even = (STAIRCASE_BOTTOM - y) % 2 == 0;
+            grid.setTileType(even ? STAIRCASE_X - 1 : STAIRCASE_X + 1, y, WALL);
+        }
+        grid.setTileType(STAIRCASE_X + 1, STAIRCASE_BOTTOM + 1, WALL);
+        return grid;
+    }
+
+    private static Configuration config() {
+        final Configuration config = new Configuration();
+        config.setWallHeight(1);
+        return config;
+    }
+
+    @Test
+    void fixesWholeStaircase() {
+        final TileGrid grid = staircase();
+        final int fixCount = DiagonalWallFix.fix(config(), grid);
+
+        assertTrue(fixCount >= STAIRCASE_BOTTOM - 1, "fixes: " + fixCount);
+        assertEquals(0, DiagonalWallFix.fix(config(), grid));
+    }
+
+    @Test
+    void rowsReportedFinalDoNotChangeWhileRendering() {
+        final TileGrid expected = staircase();
+        DiagonalWallFix.fix(config(), expected);
+
+        final TileGrid source = staircase();
+        final TileGrid grid = new TileGrid(WIDTH, HEIGHT);
+        final DiagonalWallFix fix = new DiagonalWallFix(config(), WIDTH, HEIGHT);
+        int renderedTo = 0;
+        int stableTo = 0;
+        while (renderedTo < HEIGHT) {
+            final int renderTo = Math.min(HEIGHT, renderedTo + 3);
+            grid.copyRows(source, renderedTo, renderTo);
+            renderedTo = renderTo;
+            final int nextStableTo = fix.advance(grid, renderedTo);
+            assertTrue(nextStableTo >= stableTo);
+            stableTo = nextStableTo;
+            assertRowsEqual(expected, grid, stableTo);
+        }
+        assertEquals(HEIGHT, stableTo);
+    }
+
+    private static void assertRowsEqual(final TileGrid expected, final TileGrid actual, final int toY) {
+        for (int y = 0; y < toY; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(expected.getTileType(x, y), actual.getTileType(x, y), "tile " + x + "," + y);
+                assertEquals(expected.getHeight(x, y), actual.getHeight(x, y), "height " + x + "," + y);
+            }
+        }
+    }
+}
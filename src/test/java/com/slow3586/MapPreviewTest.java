@@ -0,0 +1,93 @@
+package com.slow3586;
+
+import com.slow3586.Main.Color;
+import com.slow3586.Main.Configuration;
+import com.slow3586.Main.Room.RoomStyle;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static com.slow3586.TileGrid.TileType.WALL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MapPreviewTest {
+    private static final int TILE_PIXELS = 3;
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 8;
+    private static final int FLOOR_RGB = 0x102030;
+    private static final int WALL_RGB = 0x405060;
+
+    @TempDir
+    Path directory;
+
+    private static MapPreview preview() {
+        final Configuration config = new Configuration();
+        config.setPreviewTilePixels(TILE_PIXELS);
+        final RoomStyle style = new RoomStyle(
+            0,
+            new Color(0x10, 0x20, 0x30, 255),
+            new Color(0x40, 0x50, 0x60, 255),
+            0,
+            0,
+            Color.WHITE,
+            Color.WHITE);
+        return new MapPreview(config, new RoomStyle[]{style}, WIDTH, HEIGHT);
+    }
+
+    /**
+     * Rooms in the middle of the map, the tiles around them left without a style as when cropMap is off.
+     */
+    private static TileGrid uncroppedGrid() {
+        final TileGrid grid = new TileGrid(WIDTH, HEIGHT);
+        Main.forEachPoint(2, 2, 6, 4, (x, y) -> {
+            grid.setStyleIndex(x, y, 0);
+            if (x == 2 || y == 2) {
+                grid.setTileType(x, y, WALL);
+            }
+        });
+        return grid;
+    }
+
+    private static int expectedRgb(final TileGrid grid, final int x, final int y) {
+        if (grid.getStyleIndex(x, y) == TileGrid.NO_STYLE) {
+            return MapPreview.NO_STYLE_COLOR;
+        }
+        return grid.isWall(x, y) ? WALL_RGB : FLOOR_RGB;
+    }
+
+    @Test
+    void rendersTilesWithoutStyle() {
+        final TileGrid grid = uncroppedGrid();
+        final MapPreview preview = preview();
+        preview.renderTiles(grid, 0, HEIGHT);
+
+        for (int pixelY = 0; pixelY < HEIGHT * TILE_PIXELS; pixelY++) {
+            for (int pixelX = 0; pixelX < WIDTH * TILE_PIXELS; pixelX++) {
+                assertEquals(
+                    expectedRgb(grid, pixelX / TILE_PIXELS, pixelY / TILE_PIXELS),
+                    preview.image.getRGB(pixelX, pixelY) & 0xFFFFFF,
+                    "pixel " + pixelX + "," + pixelY);
+            }
+        }
+    }
+
+    @Test
+    void writesUncroppedPreview() throws IOException {
+        final TileGrid grid = uncroppedGrid();
+        final MapPreview preview = preview();
+        preview.renderTiles(grid, 0, 4);
+        preview.renderTiles(grid, 4, HEIGHT);
+        final Path path = directory.resolve("preview.png");
+        preview.write(path);
+
+        final BufferedImage image = ImageIO.read(path.toFile());
+        assertEquals(WIDTH * TILE_PIXELS, image.getWidth());
+        assertEquals(HEIGHT * TILE_PIXELS, image.getHeight());
+        assertEquals(MapPreview.NO_STYLE_COLOR, image.getRGB(0, 0) & 0xFFFFFF);
+        assertEquals(FLOOR_RGB, image.getRGB(4 * TILE_PIXELS, 4 * TILE_PIXELS) & 0xFFFFFF);
+    }
+}
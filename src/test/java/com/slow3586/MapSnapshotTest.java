@@ -0,0 +1,128 @@
+package com.slow3586;
+
+import com.slow3586.Main.Color;
+import com.slow3586.Main.Point;
+import com.slow3586.Main.Room;
+import com.slow3586.Main.Room.RoomStyle;
+import com.slow3586.Main.Size;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MapSnapshotTest {
+    private static final Point MAP_ORIGIN = new Point(-4, 7);
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Random tiles, with the last tile carcass and disabled so the last long of the bit sets is used.
+     */
+    private static TileGrid grid(final int width, final int height) {
+        final Random random = new Random(width * 31L + height);
+        final TileGrid grid = new TileGrid(width, height);
+        Main.forEachPoint(0, 0, width, height, (x, y) -> {
+            grid.setTileType(x, y, TileGrid.TileType.values()[random.nextInt(3)]);
+            grid.setHeight(x, y, random.nextInt(Short.MAX_VALUE - Short.MIN_VALUE) + Short.MIN_VALUE);
+            grid.setStyleIndex(x, y, random.nextInt(TileGrid.MAX_STYLE_COUNT + 1) - 1);
+            grid.setCarcass(x, y, random.nextBoolean());
+            grid.setDisabled(x, y, random.nextBoolean());
+        });
+        grid.setCarcass(width - 1, height - 1, true);
+        grid.setDisabled(width - 1, height - 1, true);
+        return grid;
+    }
+
+    private static Room[][] rooms() {
+        final Room[][] rooms = new Room[2][3];
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                final int i = y * 3 + x;
+                rooms[y][x] = new Room(
+                    new Point(x * 10 - 3, y * 12 + 1),
+                    new Size(10 + i, 12 - i),
+                    new Room.Rect(i, 2),
+                    new Room.Rect(-i, 3),
+                    new Room.Rect(i + 1, 4),
+                    new Room.Rect(i + 2, 5),
+                    i % 2,
+                    new Size(i + 1, i + 2),
+                    i == 4);
+            }
+        }
+        return rooms;
+    }
+
+    private static RoomStyle[] styles() {
+        return new RoomStyle[]{
+            new RoomStyle(1, new Color(1, 2, 3, 4), new Color(5, 6, 7, 8), 9, 10,
+                new Color(11, 12, 13, 14), new Color(15, 16, 17, 18)),
+            new RoomStyle(-2, Color.WHITE, new Color(0, 0, 0, 0), -1, -1, Color.WHITE, Color.WHITE)};
+    }
+
+    private static void assertSnapshot(final TileGrid expected, final MapSnapshot snapshot) {
+        assertEquals(expected.width, snapshot.getMapWidth());
+        assertEquals(expected.height, snapshot.getMapHeight());
+        assertEquals(MAP_ORIGIN, snapshot.getMapOrigin());
+        assertEquals(2, snapshot.getRoomRows());
+        assertEquals(3, snapshot.getRoomColumns());
+        assertArrayEquals(rooms(), snapshot.rooms());
+        assertArrayEquals(styles(), snapshot.styles());
+
+        Main.forEachPoint(0, 0, expected.width, expected.height, (x, y) -> {
+            assertEquals(expected.getTileType(x, y), snapshot.getTileType(x, y));
+            assertEquals(expected.getHeight(x, y), snapshot.getHeight(x, y));
+            assertEquals(expected.getStyleIndex(x, y), snapshot.getStyleIndex(x, y));
+            assertEquals(expected.isCarcass(x, y), snapshot.isCarcass(x, y), "carcass at " + x + "," + y);
+            assertEquals(expected.isDisabled(x, y), snapshot.isDisabled(x, y), "disabled at " + x + "," + y);
+        });
+
+        final TileGrid grid = snapshot.tileGrid();
+        assertArrayEquals(expected.tileTypes, grid.tileTypes);
+        assertArrayEquals(expected.heights, grid.heights);
+        assertArrayEquals(expected.styleIndexes, grid.styleIndexes);
+        assertEquals(expected.carcass, grid.carcass);
+        assertEquals(expected.disabled, grid.disabled);
+
+        // bits after the last tile stay clear
+        final int tiles = expected.width * expected.height;
+        final int last = snapshot.carcass.limit() - 1;
+        assertEquals((tiles + 63) / 64 - 1, last);
+        if (tiles % 64 != 0) {
+            assertEquals(0, snapshot.carcass.get(last) & -1L << tiles);
+            assertEquals(0, snapshot.disabled.get(last) & -1L << tiles);
+        }
+    }
+
+    @Test
+    void roundTripsOddTileCounts() throws IOException {
+        // 117 tiles end inside the second long, 65 tiles use one bit of it, 1 tile one bit of the first
+        for (final int[] size : new int[][]{{13, 9}, {5, 13}, {1, 1}, {8, 8}}) {
+            final TileGrid grid = grid(size[0], size[1]);
+            final Path path = directory.resolve("map" + size[0] + "x" + size[1] + ".snapshot");
+            MapSnapshot.write(path, rooms(), styles(), MAP_ORIGIN, grid);
+
+            assertSnapshot(grid, MapSnapshot.open(path));
+        }
+    }
+
+    @Test
+    void rowsWrittenInChunksMatchWholeGrid() throws IOException {
+        final TileGrid grid = grid(13, 9);
+        final Path path = directory.resolve("chunked.snapshot");
+        try (final MapSnapshot.Writer writer = new MapSnapshot.Writer(path, rooms(), styles(), MAP_ORIGIN, 13, 9)) {
+            for (int y = 0; y < 9; y += 2) {
+                final TileGrid rows = grid.crop(0, y, 13, Math.min(2, 9 - y)).translated(0, y);
+                writer.writeRows(rows, y, Math.min(y + 2, 9));
+            }
+        }
+
+        assertSnapshot(grid, MapSnapshot.open(path));
+    }
+}
@@ -0,0 +1,89 @@
+package com.slow3586;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slow3586.Main.Point;
+import com.slow3586.RoomMask.Area;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoomMaskTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static Area[] areas(final String json) throws IOException {
+        return OBJECT_MAPPER.readValue(json, Area[].class);
+    }
+
+    private static void assertMask(final RoomMask mask, final String expected) {
+        final StringBuilder actual = new StringBuilder();
+        for (int y = 0; y < mask.height; y++) {
+            for (int x = 0; x < mask.width; x++) {
+                actual.append(mask.contains(x, y) ? '#' : '.');
+            }
+            actual.append('\n');
+        }
+        assertEquals(expected, actual.toString());
+    }
+
+    @Test
+    void parsesIndexesAndRanges() throws IOException {
+        final Area[] areas = areas("[\"3,4\", \"1..6,1\", \"3..4,4..5\", [\"2..3\", 7]]");
+
+        assertEquals(new Area(3, 3, 4, 4), areas[0]);
+        assertEquals(new Area(1, 6, 1, 1), areas[1]);
+        assertEquals(new Area(3, 4, 4, 5), areas[2]);
+        assertEquals(new Area(2, 3, 7, 7), areas[3]);
+    }
+
+    @Test
+    void swapsReversedRanges() throws IOException {
+        assertEquals(new Area(2, 5, 1, 3), areas("[\"5..2,3..1\"]")[0]);
+    }
+
+    @Test
+    void trimsWhitespace() throws IOException {
+        assertEquals(new Area(1, 2, 3, 3), areas("[\" 1 ..\\t2 ,\\n3\\t\"]")[0]);
+    }
+
+    @Test
+    void rejectsMalformedAreas() {
+        assertThrows(Exception.class, () -> areas("[\"1\"]"));
+        assertThrows(Exception.class, () -> areas("[\"1,2,3\"]"));
+        assertThrows(Exception.class, () -> areas("[\"1..,2\"]"));
+        assertThrows(Exception.class, () -> areas("[\"a,2\"]"));
+    }
+
+    @Test
+    void clipsAreasToRoomGrid() throws IOException {
+        final RoomMask mask = RoomMask.of(new Point(4, 3), areas("[\"-2..1,0\", \"3..9,2..5\", \"5..7,0\", \"0,-3..-1\"]"));
+
+        assertMask(mask, ""
+            + "##..\n"
+            + "....\n"
+            + "...#\n");
+        assertFalse(mask.contains(-1, 0));
+        assertFalse(mask.contains(4, 2));
+        assertFalse(mask.contains(3, 3));
+    }
+
+    @Test
+    void reversedRangeCoversSameRooms() throws IOException {
+        final Point roomsCount = new Point(5, 5);
+        assertEquals(
+            RoomMask.of(roomsCount, areas("[\"1..3,4..2\"]")).rooms,
+            RoomMask.of(roomsCount, areas("[\"3..1,2..4\"]")).rooms);
+    }
+
+    @Test
+    void nullAreasGiveEmptyMask() {
+        final RoomMask mask = RoomMask.of(new Point(3, 3), null);
+
+        assertTrue(mask.rooms.isEmpty());
+        assertFalse(mask.contains(0, 0));
+    }
+}
@@ -0,0 +1,139 @@
+package com.slow3586;
+
+import com.slow3586.TextMapWriter.Format;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TextMapWriterTest {
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 11;
+    private static final String[] SECTION_HEADERS = {"Carcass:", "Walls:", "Heights:", "Styles:"};
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Runs of equal tiles with single tiles mixed in; heights reach both ends of their range,
+     * so zigzag values take one to three varint bytes.
+     */
+    private static TileGrid grid() {
+        final Random random = new Random(7);
+        final int[] heights = {0, -1, 1, 63, -64, 64, -65, 300, -300, Short.MAX_VALUE, Short.MIN_VALUE};
+        final TileGrid grid = new TileGrid(WIDTH, HEIGHT);
+        Main.forEachPoint(0, 0, WIDTH, HEIGHT, (x, y) -> {
+            final boolean single = random.nextInt(5) == 0;
+            final int run = single ? random.nextInt(1000) : x / 6 + y;
+            grid.setTileType(x, y, TileGrid.TileType.values()[run % 3]);
+            grid.setHeight(x, y, heights[run % heights.length]);
+            grid.setStyleIndex(x, y, run % 5 - 1);
+            grid.setCarcass(x, y, run % 4 == 0);
+            grid.setDisabled(x, y, run % 7 == 0);
+        });
+        return grid;
+    }
+
+    /**
+     * Decodes the {@link Format#BINARY} output back into the {@link Format#TEXT} output.
+     */
+    private static String decode(final byte[] bytes) throws IOException {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        assertEquals(TextMapWriter.BINARY_MAGIC, input.readInt());
+        assertEquals(TextMapWriter.BINARY_VERSION, input.readInt());
+        final int width = input.readInt();
+        final int height = input.readInt();
+
+        final StringBuilder text = new StringBuilder();
+        for (int section = 0; section < SECTION_HEADERS.length; section++) {
+            text.append(section > 0 ? "\n\n" : "").append(SECTION_HEADERS[section]);
+            for (int y = 0; y < height; y++) {
+                text.append('\n');
+                int x = 0;
+                while (x < width) {
+                    final int length = readVarInt(input);
+                    final int zigzag = readVarInt(input);
+                    final int value = (zigzag >>> 1) ^ -(zigzag & 1);
+                    for (int i = 0; i < length; i++) {
+                        text.append(section < 2 ? String.valueOf((char) value) : String.valueOf(value));
+                    }
+                    x += length;
+                }
+                assertEquals(width, x, "runs of row " + y + " of section " + section);
+            }
+        }
+        assertEquals(-1, input.read(), "bytes after the last section");
+        return text.toString();
+    }
+
+    private static int readVarInt(final DataInputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = input.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    @Test
+    void binaryDecodesToText() throws IOException {
+        final TileGrid grid = grid();
+        final Path text = directory.resolve("map.txt");
+        final Path binary = directory.resolve("map.bin");
+        TextMapWriter.write(text, Format.TEXT, grid);
+        TextMapWriter.write(binary, Format.BINARY, grid);
+
+        assertEquals(Files.readString(text, StandardCharsets.UTF_8), decode(Files.readAllBytes(binary)));
+    }
+
+    @Test
+    void rowsWrittenInChunksMatchWholeGrid() throws IOException {
+        final TileGrid grid = grid();
+        for (final Format format : Format.values()) {
+            final Path whole = directory.resolve("whole." + format);
+            final Path chunked = directory.resolve("chunked." + format);
+            TextMapWriter.write(whole, format, grid);
+            try (final TextMapWriter writer = new TextMapWriter(chunked, format, WIDTH, HEIGHT)) {
+                for (int y = 0; y < HEIGHT; y += 4) {
+                    writer.writeRows(grid, y, Math.min(y + 4, HEIGHT));
+                }
+            }
+
+            assertArrayEquals(Files.readAllBytes(whole), Files.readAllBytes(chunked), format.toString());
+        }
+    }
+
+    @Test
+    void writesRunsAsZigzagVarints() throws IOException {
+        final TileGrid grid = new TileGrid(3, 1);
+        grid.setHeight(1, 0, -1);
+        grid.setHeight(2, 0, 64);
+        final Path binary = directory.resolve("small.bin");
+        TextMapWriter.write(binary, Format.BINARY, grid);
+
+        final byte[] bytes = Files.readAllBytes(binary);
+        final byte[] sections = new byte[bytes.length - 16];
+        System.arraycopy(bytes, 16, sections, 0, sections.length);
+        assertArrayEquals(new byte[]{
+            // carcass: '#' on row 0
+            3, '#' << 1,
+            // walls: floors, '_' zigzags to 190, written in two bytes
+            3, (byte) 0xBE, 1,
+            // heights: 0, -1 zigzags to 1, 64 zigzags to 128, written in two bytes
+            1, 0, 1, 1, 1, (byte) 0x80, 1,
+            // styles: NO_STYLE zigzags to 1
+            3, 1
+        }, sections);
+    }
+}
@@ -0,0 +1,95 @@
+package com.slow3586;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.slow3586.TileGrid.TileType.DOOR;
+import static com.slow3586.TileGrid.TileType.FLOOR;
+import static com.slow3586.TileGrid.TileType.WALL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TileMesherTest {
+    private static final int ORIGIN_X = -3;
+    private static final int ORIGIN_Y = 5;
+    private static final int WIDTH = 23;
+    private static final int HEIGHT = 17;
+
+    /**
+     * Blocks of walls and floors in a few styles, with single tiles mixed in so rectangles
+     * of all sizes and ragged edges appear. Floors and doors alternate, the mesher merges them.
+     */
+    private static TileGrid grid(final long seed) {
+        final Random random = new Random(seed);
+        final TileGrid grid = new TileGrid(ORIGIN_X, ORIGIN_Y, WIDTH, HEIGHT);
+        Main.forEachPoint(ORIGIN_X, ORIGIN_Y, WIDTH, HEIGHT, (x, y) -> {
+            final boolean block = random.nextInt(4) > 0;
+            final int bx = block ? x / 4 : x;
+            final int by = block ? y / 3 : y;
+            grid.setTileType(x, y, (bx + by) % 3 == 0 ? WALL : x % 2 == 0 ? FLOOR : DOOR);
+            grid.setStyleIndex(x, y, block ? (bx * 7 + by) % 3 : random.nextInt(3));
+        });
+        return grid;
+    }
+
+    private static int[] coverCounts(final TileGrid grid, final int fromY, final int toY, final boolean merge) {
+        final int[] counts = new int[WIDTH * HEIGHT];
+        TileMesher.forEachRectangle(grid, fromY, toY, merge, (x, y, w, h) -> {
+            assertTrue(w > 0 && h > 0, "empty rectangle at " + x + "," + y);
+            assertTrue(x >= grid.originX && x + w <= grid.endX() && y >= fromY && y + h <= toY,
+                "rectangle " + x + "," + y + " " + w + "x" + h + " outside of the rows");
+            if (!merge) {
+                assertEquals(1, w * h);
+            }
+            final boolean wall = grid.isWall(x, y);
+            final int style = grid.getStyleIndex(x, y);
+            Main.forEachPoint(x, y, w, h, (tx, ty) -> {
+                assertEquals(wall, grid.isWall(tx, ty), "wall mismatch at " + tx + "," + ty);
+                assertEquals(style, grid.getStyleIndex(tx, ty), "style mismatch at " + tx + "," + ty);
+                counts[grid.index(tx, ty)]++;
+            });
+        });
+        return counts;
+    }
+
+    private static void assertCoveredOnce(final TileGrid grid, final int[] counts, final int fromY, final int toY) {
+        Main.forEachPoint(ORIGIN_X, ORIGIN_Y, WIDTH, HEIGHT, (x, y) -> assertEquals(
+            y >= fromY && y < toY ? 1 : 0,
+            counts[grid.index(x, y)],
+            "tile " + x + "," + y + " covered " + counts[grid.index(x, y)] + " times"));
+    }
+
+    @Test
+    void rectanglesCoverEveryTileOnce() {
+        for (long seed = 0; seed < 20; seed++) {
+            final TileGrid grid = grid(seed);
+            for (final boolean merge : new boolean[]{true, false}) {
+                assertCoveredOnce(grid, coverCounts(grid, grid.originY, grid.endY(), merge), grid.originY, grid.endY());
+            }
+        }
+    }
+
+    @Test
+    void rectanglesOfRowRangeCoverOnlyItsTiles() {
+        final TileGrid grid = grid(42);
+        for (int fromY = grid.originY; fromY < grid.endY(); fromY += 5) {
+            final int toY = Math.min(fromY + 5, grid.endY());
+            assertCoveredOnce(grid, coverCounts(grid, fromY, toY, true), fromY, toY);
+        }
+    }
+
+    @Test
+    void uniformGridIsOneRectangle() {
+        final TileGrid grid = new TileGrid(ORIGIN_X, ORIGIN_Y, WIDTH, HEIGHT);
+        final int[] count = new int[1];
+        TileMesher.forEachRectangle(grid, true, (x, y, w, h) -> {
+            assertEquals(ORIGIN_X, x);
+            assertEquals(ORIGIN_Y, y);
+            assertEquals(WIDTH, w);
+            assertEquals(HEIGHT, h);
+            count[0]++;
+        });
+        assertEquals(1, count[0]);
+    }
+}